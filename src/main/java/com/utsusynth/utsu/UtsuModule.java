@@ -46,6 +46,8 @@ public class UtsuModule extends AbstractModule {
         bind(StatusBar.class).asEagerSingleton();
         bind(AssetManager.class).asEagerSingleton();
         bind(CacheManager.class).asEagerSingleton();
+        bind(ExternalProcessRunner.class).asEagerSingleton();
+        bind(SilenceGenerator.class).asEagerSingleton();
         bind(FileNameFixer.class).asEagerSingleton();
         bind(IconManager.class).asEagerSingleton();
         bind(VoicebankReader.class).asEagerSingleton();
@@ -94,6 +96,8 @@ public class UtsuModule extends AbstractModule {
         defaultBuilder.put("cache", PreferencesManager.CacheMode.ENABLED.name());
         defaultBuilder.put("resampler", assetManager.getResamplerFile().getAbsolutePath());
         defaultBuilder.put("wavtool", assetManager.getWavtoolFile().getAbsolutePath());
+        defaultBuilder.put("wavtoolMode", PreferencesManager.WavtoolMode.EXTERNAL.name());
+        defaultBuilder.put("streaming", PreferencesManager.StreamingMode.DISABLED.name());
         defaultBuilder.put("voicebank", assetManager.getVoicePath().getAbsolutePath());
         return new PreferencesManager(
                 settingsPath,
@@ -154,19 +158,26 @@ public class UtsuModule extends AbstractModule {
     @Provides
     private Engine provideEngine(
             Resampler resampler,
-            Wavtool wavtool,
+            Provider<Wavtool> wavtoolProvider,
             StatusBar statusBar,
+            RenderScheduler renderScheduler,
             CacheManager cacheManager,
             PreferencesManager preferencesManager) {
         return new Engine(
                 resampler,
-                wavtool,
+                wavtoolProvider,
                 statusBar,
-                /* threadPoolSize= */ 10,
+                renderScheduler,
                 cacheManager,
                 preferencesManager);
     }
 
+    @Provides
+    @Singleton
+    private RenderScheduler provideRenderScheduler() {
+        return new RenderScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
     @Provides
     @Singleton
     private FrqGenerator provideFrqGenerator(
@@ -17,7 +17,7 @@ public class StatusBar implements Localizable {
     private DoubleProperty curProgress; // A value from 0 to 1, inclusive.
 
     private String key = ""; // Key of current status message, if present.
-    private String param = ""; // Param of current status message, if present.
+    private Object[] params = new Object[0]; // Params of current status message, if present.
 
     @Inject
     public StatusBar(Localizer localizer) {
@@ -35,32 +35,32 @@ public class StatusBar implements Localizable {
         if (key.isEmpty() || !bundle.containsKey(key)) {
             return;
         }
-        if (param.isEmpty()) {
+        if (params.length == 0) {
             statusText.set(bundle.getString(key));
         } else {
-            statusText.set(MessageFormat.format(localizer.getMessage(key), param));
+            statusText.set(MessageFormat.format(localizer.getMessage(key), params));
         }
     }
 
     public void setStatus(String key) {
-        // Equivalent to setting a status key with no param.
-        setStatus(key, "");
+        // Equivalent to setting a status key with no params.
+        setStatus(key, new Object[0]);
     }
 
-    public void setStatus(String key, String param) {
+    public void setStatus(String key, Object... params) {
         this.key = key;
-        this.param = param;
-        if (param.isEmpty()) {
+        this.params = params;
+        if (params.length == 0) {
             statusText.set(localizer.getMessage(key));
         } else {
-            statusText.set(MessageFormat.format(localizer.getMessage(key), param));
+            statusText.set(MessageFormat.format(localizer.getMessage(key), params));
         }
     }
 
     public void setText(String text) {
         if (statusText != null) {
             key = "";
-            param = "";
+            params = new Object[0];
             statusText.set(text);
         }
     }
@@ -29,9 +29,12 @@ import com.utsusynth.utsu.files.song.Ust12Reader;
 import com.utsusynth.utsu.files.song.Ust12Writer;
 import com.utsusynth.utsu.files.song.Ust20Reader;
 import com.utsusynth.utsu.files.song.Ust20Writer;
+import com.utsusynth.utsu.model.song.NoteCursor;
 import com.utsusynth.utsu.model.song.NoteIterator;
 import com.utsusynth.utsu.model.song.SongContainer;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 import com.utsusynth.utsu.model.voicebank.Voicebank;
+import com.utsusynth.utsu.model.voicebank.VoicebankContainer;
 import com.utsusynth.utsu.view.song.Piano;
 import com.utsusynth.utsu.view.song.SongCallback;
 import com.utsusynth.utsu.view.song.SongEditor;
@@ -66,6 +69,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.*;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static javafx.scene.input.KeyCombination.SHORTCUT_DOWN;
@@ -97,6 +101,7 @@ public class SongController implements EditorController, Localizable {
     private final IconManager iconManager;
     private final ThemeManager themeManager;
     private final ExternalProcessRunner processRunner;
+    private final Provider<VoicebankContainer> voicebankContainerProvider;
     private final Provider<FXMLLoader> fxmlLoaderProvider;
 
     @FXML // fx:id="scrollPaneLeft"
@@ -148,6 +153,7 @@ public class SongController implements EditorController, Localizable {
             IconManager iconManager,
             ThemeManager themeManager,
             ExternalProcessRunner processRunner,
+            Provider<VoicebankContainer> voicebankContainers,
             Provider<FXMLLoader> fxmlLoaders) {
         this.song = songContainer;
         this.engine = engine;
@@ -166,6 +172,7 @@ public class SongController implements EditorController, Localizable {
         this.iconManager = iconManager;
         this.themeManager = themeManager;
         this.processRunner = processRunner;
+        this.voicebankContainerProvider = voicebankContainers;
         this.fxmlLoaderProvider = fxmlLoaders;
     }
 
@@ -191,6 +198,21 @@ public class SongController implements EditorController, Localizable {
                 return song.get().modifyNote(toModify);
             }
 
+            @Override
+            public MutateResponse editNotes(
+                    Set<Integer> positionsToRemove, List<NoteData> notesToAdd) {
+                onSongChange();
+                return song.get().edit(
+                        edit -> edit.removeNotes(positionsToRemove).addNotes(notesToAdd));
+            }
+
+            @Override
+            public MutateResponse shiftNotes(
+                    Set<Integer> positions, int positionDelta, int noteNumDelta) {
+                onSongChange();
+                return song.get().shiftNotes(positions, positionDelta, noteNumDelta);
+            }
+
             @Override
             public MutateResponse standardizeNotes(int firstPos, int lastPos) {
                 // Only called in response to other changes, so this does not trigger onSongChange.
@@ -244,10 +266,13 @@ public class SongController implements EditorController, Localizable {
             if (file != null
                     && !file.getAbsolutePath().equals(song.get().getVoiceDir().getAbsolutePath())) {
                 new Thread(() -> {
-                    song.setSong(song.get().toBuilder().setVoiceDirectory(file).build());
-                    String newName = song.get().getVoicebank().getName(); // Loads voicebank.
-                    song.get().clearAllCacheValues();
+                    // Load the voicebank here, but only change notes on the UI thread.
+                    VoicebankContainer newVoicebank = voicebankContainerProvider.get();
+                    newVoicebank.setVoicebankForRead(file);
+                    String newName = newVoicebank.get().getName();
                     Platform.runLater(() -> {
+                        song.setSong(song.get().toBuilder().setVoiceDirectory(file).build());
+                        song.get().clearAllCacheValues();
                         onSongChange();
                         refreshView();
                         statusBar.setText("Changed voicebank to " + newName + ".");
@@ -501,12 +526,14 @@ public class SongController implements EditorController, Localizable {
                     }
                     songEditor.focusOnNote(newFocus.get());
                 }
-            } else if (song.get().getNoteIterator().hasNext()) {
-                int positionMs = song.get().getNoteIterator().next().getDelta();
-                if (!songEditor.getVisibleTrack().contains(positionMs)) {
-                    songEditor.scrollToPosition(positionMs);
-                }
-                songEditor.focusOnNote(positionMs);
+            } else {
+                // Focus on the first note in the song.
+                song.get().getFirstNoteAtOrAfter(0).ifPresent(positionMs -> {
+                    if (!songEditor.getVisibleTrack().contains(positionMs)) {
+                        songEditor.scrollToPosition(positionMs);
+                    }
+                    songEditor.focusOnNote(positionMs);
+                });
             }
             return true;
         } else if (new KeyCodeCombination(KeyCode.LEFT).match(keyEvent)
@@ -520,12 +547,14 @@ public class SongController implements EditorController, Localizable {
                     }
                     songEditor.focusOnNote(newFocus.get());
                 }
-            } else if (song.get().getNoteIterator().hasNext()) {
-                int positionMs = song.get().getNoteIterator().next().getDelta();
-                if (!songEditor.getVisibleTrack().contains(positionMs)) {
-                    songEditor.scrollToPosition(positionMs);
-                }
-                songEditor.focusOnNote(positionMs);
+            } else {
+                // Focus on the first note in the song.
+                song.get().getFirstNoteAtOrAfter(0).ifPresent(positionMs -> {
+                    if (!songEditor.getVisibleTrack().contains(positionMs)) {
+                        songEditor.scrollToPosition(positionMs);
+                    }
+                    songEditor.focusOnNote(positionMs);
+                });
             }
             return true;
         } else {
@@ -617,12 +646,13 @@ public class SongController implements EditorController, Localizable {
             String charset = saveFormat.contains("Shift JIS") ? "SJIS" : "UTF-8";
             File saveLocation = song.getLocation();
             statusBar.setText("Saving...");
+            SongSnapshot snapshot = song.get().snapshot();
             new Thread(() -> {
                 try (PrintStream ps = new PrintStream(saveLocation, charset)) {
                     if (saveFormat.contains("UST 1.2")) {
-                        ust12Writer.writeSong(song.get(), ps);
+                        ust12Writer.writeSong(snapshot, ps);
                     } else {
-                        ust20Writer.writeSong(song.get(), ps, charset);
+                        ust20Writer.writeSong(snapshot, ps, charset);
                     }
                     ps.flush();
                     ps.close();
@@ -673,12 +703,13 @@ public class SongController implements EditorController, Localizable {
             }
             ExtensionFilter chosenFormat = fc.getSelectedExtensionFilter();
             String charset = chosenFormat.getDescription().contains("Shift JIS") ? "SJIS" : "UTF-8";
+            SongSnapshot snapshot = song.get().snapshot();
             new Thread(() -> {
                 try (PrintStream ps = new PrintStream(file, charset)) {
                     if (chosenFormat.getDescription().contains("UST 1.2")) {
-                        ust12Writer.writeSong(song.get(), ps);
+                        ust12Writer.writeSong(snapshot, ps);
                     } else {
-                        ust20Writer.writeSong(song.get(), ps, charset);
+                        ust20Writer.writeSong(snapshot, ps, charset);
                     }
                     ps.flush();
                     ps.close();
@@ -706,7 +737,8 @@ public class SongController implements EditorController, Localizable {
      * Called whenever a Song is changed.
      */
     private void onSongChange() {
-        song.get().clearCache(); // Invalidate rendered song cache.
+        engine.cancelRender(); // Any render in progress is now out of date.
+        song.get().invalidateCache(); // Rendered song cache is now out of date.
         if (callback != null) {
             callback.markChanged(true);
         }
@@ -805,10 +837,18 @@ public class SongController implements EditorController, Localizable {
         RegionBounds regionToPlay = songEditor.getPlayableTrack();
 
         Function<Duration, Void> startPlaybackFn = duration -> {
-            songEditor.startPlayback(regionToPlay, duration);
+            songEditor.startPlayback(regionToPlay, duration, engine::getPlaybackTime);
+            // Playback may start before rendering finishes.
+            iconManager.setPauseIcon(playPauseIcon);
+            playPauseIcon.setDisable(false);
             return null;
         };
-        Runnable endPlaybackFn = () -> {
+        Consumer<Boolean> endPlaybackFn = playedToEnd -> {
+            if (playedToEnd) {
+                songEditor.finishPlayback();
+            } else {
+                songEditor.stopPlayback();
+            }
             iconManager.setPlayIcon(playPauseIcon);
         };
 
@@ -816,9 +856,10 @@ public class SongController implements EditorController, Localizable {
         playPauseIcon.setDisable(true);
 
         statusBar.setText("Rendering...");
+        SongSnapshot snapshot = song.get().snapshot(); // Edits during render won't affect it.
         new Thread(() ->
         {
-            if (engine.startPlayback(song.get(), regionToPlay, startPlaybackFn, endPlaybackFn)) {
+            if (engine.startPlayback(snapshot, regionToPlay, startPlaybackFn, endPlaybackFn)) {
                 Platform.runLater(() -> {
                     iconManager.setPauseIcon(playPauseIcon);
                     statusBar.setText("Render complete.");
@@ -856,8 +897,9 @@ public class SongController implements EditorController, Localizable {
         File file = fc.showSaveDialog(null);
         if (file != null) {
             statusBar.setText("Exporting...");
+            SongSnapshot snapshot = song.get().snapshot();
             new Thread(() -> {
-                if (engine.renderWav(song.get(), file)) {
+                if (engine.renderWav(snapshot, file)) {
                     Platform.runLater(
                             () -> statusBar.setText("Exported to file: " + file.getName()));
                 } else {
@@ -1053,20 +1095,18 @@ public class SongController implements EditorController, Localizable {
             return;
         }
         Runnable redoAction = () -> {
-            for (NoteData noteData : newNotes) {
-                song.get().modifyNote(noteData);
-            }
+            MutateResponse response =
+                    song.get().edit(edit -> newNotes.forEach(edit::modifyNote));
             onSongChange();
             songEditor.selectRegion(getRegionBounds(newNotes));
-            songEditor.refreshSelected();
+            songEditor.refreshNotesFromController(response);
         };
         Runnable undoAction = () -> {
-            for (NoteData noteData : oldNotes) {
-                song.get().modifyNote(noteData);
-            }
+            MutateResponse response =
+                    song.get().edit(edit -> oldNotes.forEach(edit::modifyNote));
             onSongChange();
             songEditor.selectRegion(getRegionBounds(oldNotes));
-            songEditor.refreshSelected();
+            songEditor.refreshNotesFromController(response);
         };
         // Apply changes and save redo/undo for these changes.
         redoAction.run();
@@ -1115,10 +1155,11 @@ public class SongController implements EditorController, Localizable {
                             List<NoteData> notesToChange = new ArrayList<>();
                             List<NoteData> newNotes = new ArrayList<>();
                             int lyricIndex = 0;
-                            for (NoteData noteData : song.get().getNotes(regionToUpdate)) {
-                                if (lyricIndex >= newLyrics.length) {
-                                    break;
-                                }
+                            // Only copy as many notes as there are lyrics.
+                            NoteCursor notes =
+                                    song.get().getNoteCursor(regionToUpdate, List.of());
+                            while (lyricIndex < newLyrics.length && notes.next()) {
+                                NoteData noteData = notes.toNoteData();
                                 notesToChange.add(noteData);
                                 newNotes.add(noteData.withNewLyric(newLyrics[lyricIndex]));
                                 lyricIndex++;
@@ -1154,29 +1195,24 @@ public class SongController implements EditorController, Localizable {
         if (newNotes.isEmpty()) {
             return;
         }
-        Runnable redoAction = () -> {
-            songEditor.deleteNotesFromController(oldNotes);
-            song.get().addNotes(newNotes);
-            songEditor.addNotesFromController(
-                    newNotes.get(0).getPosition(),
-                    newNotes.get(oldNotes.size() - 1).getPosition(),
-                    newNotes);
-            onSongChange();
-        };
-        Runnable undoAction = () -> {
-            songEditor.deleteNotesFromController(newNotes);
-            song.get().addNotes(oldNotes);
-            songEditor.addNotesFromController(
-                    oldNotes.get(0).getPosition(),
-                    oldNotes.get(oldNotes.size() - 1).getPosition(),
-                    oldNotes);
-            onSongChange();
-        };
+        Runnable redoAction = () -> replaceNotes(oldNotes, newNotes);
+        Runnable undoAction = () -> replaceNotes(newNotes, oldNotes);
         // Apply changes and save redo/undo for these changes.
         redoAction.run();
         undoService.setMostRecentAction(redoAction, undoAction);
     }
 
+    /** Replaces one set of notes with another in a single edit. */
+    private void replaceNotes(List<NoteData> toRemove, List<NoteData> toAdd) {
+        songEditor.deleteNotesFromController(toRemove);
+        Set<Integer> positionsToRemove =
+                toRemove.stream().map(NoteData::getPosition).collect(Collectors.toSet());
+        MutateResponse response =
+                song.get().edit(edit -> edit.removeNotes(positionsToRemove).addNotes(toAdd));
+        songEditor.addNotesFromController(toAdd, response);
+        onSongChange();
+    }
+
     @Override
     public Optional<File> openPlugin() {
         FileChooser fc = new FileChooser();
@@ -1202,8 +1238,9 @@ public class SongController implements EditorController, Localizable {
                 System.out.println("Plugin input: " + pluginFile.getAbsolutePath());
                 pluginFile.deleteOnExit();
                 PrintStream ps = new PrintStream(pluginFile, "SJIS");
+                SongSnapshot snapshot = song.get().snapshot();
                 String[] headers =
-                        ust12Writer.writeToPlugin(song.get(), songEditor.getSelectedTrack(), ps);
+                        ust12Writer.writeToPlugin(snapshot, songEditor.getSelectedTrack(), ps);
                 ps.flush();
                 ps.close();
                 System.out.println(headers[0] + " " + headers[1]);
@@ -1211,13 +1248,14 @@ public class SongController implements EditorController, Localizable {
                 // Write pre-plugin song to a string.
                 ByteArrayOutputStream songBytes = new ByteArrayOutputStream();
                 ps = new PrintStream(songBytes, true, "SJIS");
-                ust12Writer.writeSong(song.get(), ps);
+                ust12Writer.writeSong(snapshot, ps);
                 ps.close();
                 String songString = songBytes.toString("SJIS");
 
-                // Attempt to run plugin.
+                // Attempt to run plugin. Plugins may wait on user input, so never time out.
                 processRunner.runProcess(
-                        new File(plugin.getAbsolutePath()).getParent(),
+                        ExternalProcessRunner.NO_TIMEOUT,
+                        new File(plugin.getAbsolutePath()).getParentFile(),
                         plugin.getAbsolutePath(),
                         pluginFile.getAbsolutePath());
 
@@ -244,25 +244,31 @@ public class SongPropertiesController implements Localizable {
     @FXML
     void applyProperties(ActionEvent event) {
         new Thread(() -> {
-            boolean shouldClearCache = !engine.getResamplerPath().equals(resamplerPath)
-                    || !songContainer.get().getFlags().equals(flagsTF.getText())
-                    || !songContainer.get().getVoiceDir().equals(voicebankContainer.getLocation());
-            songContainer.setSong(
-                    songContainer.get().toBuilder().setProjectName(projectNameTF.getText())
-                            .setOutputFile(new File(outputFileTF.getText()))
-                            .setFlags(flagsTF.getText())
-                            .setVoiceDirectory(voicebankContainer.getLocation())
-                            .setTempo(RoundUtils.round(tempoSlider.getValue()))
-                            //.setInstrumental(instrumentalPath)
-                            .build());
-            engine.setResamplerPath(resamplerPath);
-            engine.setWavtoolPath(wavtoolPath);
-            onSongChange.apply(shouldClearCache);
+            // Load the voicebank here, but only change notes on the UI thread.
+            voicebankContainer.get();
+            Platform.runLater(this::applyToSong);
         }).start();
         Stage currentStage = (Stage) root.getScene().getWindow();
         currentStage.close();
     }
 
+    private void applyToSong() {
+        boolean shouldClearCache = !engine.getResamplerPath().equals(resamplerPath)
+                || !songContainer.get().getFlags().equals(flagsTF.getText())
+                || !songContainer.get().getVoiceDir().equals(voicebankContainer.getLocation());
+        songContainer.setSong(
+                songContainer.get().toBuilder().setProjectName(projectNameTF.getText())
+                        .setOutputFile(new File(outputFileTF.getText()))
+                        .setFlags(flagsTF.getText())
+                        .setVoiceDirectory(voicebankContainer.getLocation())
+                        .setTempo(RoundUtils.round(tempoSlider.getValue()))
+                        //.setInstrumental(instrumentalPath)
+                        .build());
+        engine.setResamplerPath(resamplerPath);
+        engine.setWavtoolPath(wavtoolPath);
+        onSongChange.apply(shouldClearCache);
+    }
+
     @FXML
     void closeProperties(ActionEvent event) {
         Stage currentStage = (Stage) root.getScene().getWindow();
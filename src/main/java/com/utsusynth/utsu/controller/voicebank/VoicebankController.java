@@ -3,6 +3,7 @@ package com.utsusynth.utsu.controller.voicebank;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.StatusBar;
 import com.utsusynth.utsu.common.data.LyricConfigData;
+import com.utsusynth.utsu.common.data.LyricConfigData.FrqStatus;
 import com.utsusynth.utsu.common.data.PitchMapData;
 import com.utsusynth.utsu.common.exception.ErrorLogger;
 import com.utsusynth.utsu.common.exception.FileAlreadyOpenException;
@@ -39,9 +40,12 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.DirectoryChooser;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static javafx.scene.input.KeyCombination.SHIFT_DOWN;
 import static javafx.scene.input.KeyCombination.SHORTCUT_DOWN;
@@ -55,6 +59,7 @@ public class VoicebankController implements EditorController, Localizable {
     // User session data goes here.
     private EditorCallback callback;
     private boolean openForEdit = false;
+    private Thread frqThread; // Generates frq files in the background, if running.
 
     // Helper classes go here.
     private final VoicebankContainer voicebank;
@@ -172,13 +177,45 @@ public class VoicebankController implements EditorController, Localizable {
             }
 
             @Override
-            public void generateFrqFiles(Iterator<LyricConfigData> lyricIterator) {
+            public void generateFrqFiles(
+                    Iterator<LyricConfigData> lyricIterator, boolean replaceExisting) {
+                if (frqThread != null && frqThread.isAlive()) {
+                    // Includes a stopped generation whose workers haven't finished yet.
+                    statusBar.setText("Already generating .frq files.");
+                    return;
+                }
+                // Copy the lyrics here since the table may change while frq files generate.
+                List<LyricConfigData> toGenerate = new ArrayList<>();
+                lyricIterator.forEachRemaining(toGenerate::add);
+                int numLyrics = toGenerate.size();
                 statusBar.setText("Generating .frq files...");
-                new Thread(() -> {
-                    voicebank.get().generateFrqs(lyricIterator);
-                    Platform.runLater(() -> statusBar.setText("Finished generating .frq files."));
+                AtomicInteger numFinished = new AtomicInteger(0);
+                frqThread = new Thread(() -> {
+                    voicebank.get().generateFrqs(toGenerate, replaceExisting, statuses -> {
+                        for (FrqStatus status : statuses.values()) {
+                            if (status != FrqStatus.LOADING) {
+                                numFinished.incrementAndGet();
+                            }
+                        }
+                        int progress = numFinished.get();
+                        Platform.runLater(() -> {
+                            statuses.forEach(LyricConfigData::setFrqStatus);
+                            statusBar.setText(String.format(
+                                    "Generating .frq files (%d/%d)...", progress, numLyrics));
+                        });
+                    });
+                    boolean wasStopped = Thread.currentThread().isInterrupted();
+                    Platform.runLater(() -> statusBar.setText(wasStopped
+                            ? "Stopped generating .frq files."
+                            : "Finished generating .frq files."));
                     // Change cannot be saved or undone, so don't call onVoicebankChange.
-                }).start();
+                });
+                frqThread.start();
+            }
+
+            @Override
+            public void stopGeneratingFrqFiles() {
+                stopFrqThread();
             }
 
             @Override
@@ -307,6 +344,7 @@ public class VoicebankController implements EditorController, Localizable {
 
     @Override
     public void closeEditor() {
+        stopFrqThread();
         // Remove this voicebank from memory, forcing songs using it to reload.
         if (openForEdit) {
             voicebank.removeVoicebankForEdit();
@@ -314,6 +352,13 @@ public class VoicebankController implements EditorController, Localizable {
         openForEdit = false;
     }
 
+    // The thread is kept until it ends, so no new generation starts while old workers run.
+    private void stopFrqThread() {
+        if (frqThread != null) {
+            frqThread.interrupt();
+        }
+    }
+
     @Override
     public File getOpenFile() {
         return voicebank.getLocation();
@@ -0,0 +1,233 @@
+package com.utsusynth.utsu.engine;
+
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure-Java replacement for an external wavtool. Concatenates rendered notes into an in-memory
+ * PCM buffer, applying each note's envelope and overlap, and writes the WAV header only once
+ * when the render is finished.
+ */
+class BuiltInWavtool {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final float DEFAULT_SAMPLE_RATE = 44100;
+
+    private float sampleRate = DEFAULT_SAMPLE_RATE;
+    private float[] samples = new float[0]; // Mono samples, scaled to 16-bit range.
+    private int numSamples = 0; // Number of samples written so far.
+
+    /** Clears the buffer in preparation for a new render. */
+    void startRender() {
+        sampleRate = DEFAULT_SAMPLE_RATE;
+        samples = new float[(int) DEFAULT_SAMPLE_RATE]; // Start with one second of space.
+        numSamples = 0;
+    }
+
+    /**
+     * Adds a rendered note onto the end of the buffer.
+     *
+     * @param inputFile Output of the resampler for this note.
+     * @param startPoint Position in the input file to start reading from, in ms.
+     * @param noteLength Length of the note to add, in ms.
+     * @param envelope Envelope in wavtool order: p1, p2, p3, v1, v2, v3, v4, overlap, p4, p5, v5.
+     * @param overlap Amount of time this note should overlap with the previous one, in ms.
+     */
+    void addNote(
+            File inputFile,
+            double startPoint,
+            double noteLength,
+            double[] envelope,
+            double overlap) {
+        float[] input = readSamples(inputFile);
+        int length = msToSamples(noteLength);
+        int start = Math.max(0, numSamples - msToSamples(overlap));
+        int inputOffset = msToSamples(startPoint);
+        ensureCapacity(start + length);
+
+        float[] gains = getEnvelopeGains(envelope, noteLength, length);
+        for (int i = 0; i < length; i++) {
+            int inputIndex = inputOffset + i;
+            if (inputIndex >= input.length) {
+                break; // Anything past the end of the input is silent.
+            }
+            // Mix into anything already in the buffer to crossfade overlapping notes.
+            samples[start + i] += input[inputIndex] * gains[i];
+        }
+        numSamples = Math.max(numSamples, start + length);
+    }
+
+    /** Mixes all of a WAV file into the buffer, starting at the given position in ms. */
+    void addWav(File inputFile, double positionMs) {
+        float[] input = readSamples(inputFile);
+        int start = msToSamples(positionMs); // Sample rate may have been set by readSamples.
+        ensureCapacity(start + input.length);
+        for (int i = 0; i < input.length; i++) {
+            samples[start + i] += input[i];
+        }
+        numSamples = Math.max(numSamples, start + input.length);
+    }
+
+    /**
+     * Mixes a WAV file into the buffer, starting at the given sample. The start can be negative,
+     * in which case the beginning of the file is left out.
+     */
+    void mixWav(File inputFile, int startSample) {
+        float[] input = readSamples(inputFile);
+        int skip = Math.max(0, -startSample);
+        ensureCapacity(startSample + input.length);
+        for (int i = skip; i < input.length; i++) {
+            samples[startSample + i] += input[i];
+        }
+        numSamples = Math.max(numSamples, startSample + input.length);
+    }
+
+    /** Adds a stretch of silence onto the end of the buffer. */
+    void addSilence(double duration) {
+        int length = msToSamples(duration);
+        ensureCapacity(numSamples + length);
+        numSamples += length; // New space is already zero-filled.
+    }
+
+    /**
+     * Writes the contents of the buffer to a WAV file.
+     *
+     * @return Whether the file was written.
+     */
+    boolean finishRender(File outputFile) {
+        byte[] bytes = toPcm(0, numSamples);
+        boolean wasWritten = true;
+        try (AudioInputStream output =
+                new AudioInputStream(new ByteArrayInputStream(bytes), getFormat(), numSamples)) {
+            AudioSystem.write(output, AudioFileFormat.Type.WAVE, outputFile);
+        } catch (IOException e) {
+            errorLogger.logError(e);
+            wasWritten = false;
+        }
+        samples = new float[0]; // Release buffer.
+        numSamples = 0;
+        return wasWritten;
+    }
+
+    /** Converts part of the buffer to 16-bit PCM, in the format given by getFormat. */
+    byte[] toPcm(int fromSample, int toSample) {
+        int length = Math.max(0, Math.min(toSample, numSamples) - fromSample);
+        byte[] bytes = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            int sample = Math.round(samples[fromSample + i]);
+            sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            bytes[i * 2] = (byte) (sample & 0xff); // Little-endian.
+            bytes[i * 2 + 1] = (byte) ((sample >> 8) & 0xff);
+        }
+        return bytes;
+    }
+
+    AudioFormat getFormat() {
+        return new AudioFormat(sampleRate, 16, 1, true, false);
+    }
+
+    int getNumSamples() {
+        return numSamples;
+    }
+
+    int msToSamples(double ms) {
+        return Math.max(0, (int) Math.round(ms * sampleRate / 1000.0));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(capacity, samples.length * 2));
+        }
+    }
+
+    /** Reads the first channel of a WAV file as 16-bit samples. */
+    private float[] readSamples(File inputFile) {
+        if (!inputFile.canRead()) {
+            System.out.println("Warning: wavtool input not found: " + inputFile.getName());
+            return new float[0];
+        }
+        try (AudioInputStream rawInput = AudioSystem.getAudioInputStream(inputFile)) {
+            AudioFormat rawFormat = rawInput.getFormat();
+            AudioFormat format = new AudioFormat(
+                    Encoding.PCM_SIGNED,
+                    rawFormat.getSampleRate(),
+                    16,
+                    rawFormat.getChannels(),
+                    rawFormat.getChannels() * 2,
+                    rawFormat.getSampleRate(),
+                    false);
+            if (numSamples == 0) {
+                // Match the sample rate of the first note, as external wavtools do.
+                sampleRate = format.getSampleRate();
+            } else if (format.getSampleRate() != sampleRate) {
+                System.out.println("Warning: wavtool input has unexpected sample rate.");
+            }
+            try (AudioInputStream input = AudioSystem.getAudioInputStream(format, rawInput)) {
+                byte[] bytes = input.readAllBytes();
+                int channels = format.getChannels();
+                float[] result = new float[bytes.length / (2 * channels)];
+                for (int i = 0; i < result.length; i++) {
+                    int index = i * 2 * channels;
+                    result[i] = (short) ((bytes[index] & 0xff) | (bytes[index + 1] << 8));
+                }
+                return result;
+            }
+        } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+            errorLogger.logError(e);
+            return new float[0];
+        }
+    }
+
+    /**
+     * Converts a UTAU envelope into a per-sample gain. The envelope is made of the points
+     * (0, 0), (p1, v1), (p1+p2, v2), (p1+p2+p5, v5), (L-p4-p3, v3), (L-p4, v4), (L, 0).
+     */
+    private static float[] getEnvelopeGains(double[] envelope, double lengthMs, int length) {
+        double p1 = envelope[0];
+        double p2 = envelope[1];
+        double p3 = envelope[2];
+        double p4 = envelope[8];
+        double p5 = envelope[9];
+        double[] times = new double[] {
+                0,
+                p1,
+                p1 + p2,
+                p1 + p2 + p5,
+                lengthMs - p4 - p3,
+                lengthMs - p4,
+                lengthMs};
+        double[] volumes = new double[] {
+                0, envelope[3], envelope[4], envelope[10], envelope[5], envelope[6], 0};
+        // Keep envelope points in order and within the note.
+        for (int i = 0; i < times.length; i++) {
+            times[i] = Math.max(0, Math.min(lengthMs, times[i]));
+            if (i > 0) {
+                times[i] = Math.max(times[i - 1], times[i]);
+            }
+        }
+
+        float[] gains = new float[length];
+        int point = 0;
+        for (int i = 0; i < length; i++) {
+            double timeMs = lengthMs * i / length;
+            while (point < times.length - 2 && timeMs >= times[point + 1]) {
+                point++;
+            }
+            double width = times[point + 1] - times[point];
+            double fraction = width <= 0 ? 1 : (timeMs - times[point]) / width;
+            fraction = Math.max(0, Math.min(1, fraction));
+            double volume = volumes[point] + (volumes[point + 1] - volumes[point]) * fraction;
+            gains[i] = (float) (volume / 100.0);
+        }
+        return gains;
+    }
+}
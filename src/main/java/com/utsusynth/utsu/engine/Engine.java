@@ -1,20 +1,25 @@
 package com.utsusynth.utsu.engine;
 
 import com.google.common.base.Function;
+import com.google.inject.Provider;
 import com.utsusynth.utsu.common.RegionBounds;
 import com.utsusynth.utsu.common.StatusBar;
 import com.utsusynth.utsu.common.data.LyricConfigData;
 import com.utsusynth.utsu.common.exception.ErrorLogger;
-import com.utsusynth.utsu.common.quantize.Quantizer;
-import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.engine.RenderPlan.NoteStep;
+import com.utsusynth.utsu.engine.RenderPlan.PhrasePlan;
+import com.utsusynth.utsu.engine.RenderPlan.SilenceStep;
+import com.utsusynth.utsu.engine.RenderPlan.Step;
+import com.utsusynth.utsu.engine.RenderScheduler.Priority;
+import com.utsusynth.utsu.engine.RenderedRegion.PhraseRecord;
 import com.utsusynth.utsu.files.CacheManager;
 import com.utsusynth.utsu.files.PreferencesManager;
 import com.utsusynth.utsu.files.PreferencesManager.CacheMode;
+import com.utsusynth.utsu.files.PreferencesManager.StreamingMode;
 import com.utsusynth.utsu.model.song.Note;
 import com.utsusynth.utsu.model.song.NoteIterator;
 import com.utsusynth.utsu.model.song.Song;
-import com.utsusynth.utsu.model.voicebank.LyricConfig;
-import com.utsusynth.utsu.model.voicebank.Voicebank;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 import javafx.application.Platform;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
@@ -25,11 +30,19 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class Engine {
     private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
@@ -39,30 +52,37 @@ public class Engine {
     }
 
     private final Resampler resampler;
-    private final Wavtool wavtool;
+    private final Provider<Wavtool> wavtoolProvider;
     private final StatusBar statusBar;
-    private final int threadPoolSize;
+    private final RenderScheduler renderScheduler;
     private final CacheManager cacheManager;
     private final PreferencesManager preferencesManager;
+    private final Map<Song, RenderedRegion> renderedRegions; // Last render of each song.
+    private final Map<Song, Object> renderLocks; // Guards each song's render and its record.
     private File resamplerPath;
     private File wavtoolPath;
 
     private MediaPlayer instrumentalPlayer; // Used for background music.
     private MediaPlayer mediaPlayer; // Used for audio playback.
+    private StreamingPlayer streamingPlayer; // Used for audio playback while rendering.
+    private Duration playbackTime = Duration.ZERO; // Last known playback position.
+    private volatile RenderHandle playbackRender; // Render for current playback, if any.
 
     public Engine(
             Resampler resampler,
-            Wavtool wavtool,
+            Provider<Wavtool> wavtoolProvider,
             StatusBar statusBar,
-            int threadPoolSize,
+            RenderScheduler renderScheduler,
             CacheManager cacheManager,
             PreferencesManager preferencesManager) {
         this.resampler = resampler;
-        this.wavtool = wavtool;
+        this.wavtoolProvider = wavtoolProvider;
         this.statusBar = statusBar;
-        this.threadPoolSize = threadPoolSize;
+        this.renderScheduler = renderScheduler;
         this.cacheManager = cacheManager;
         this.preferencesManager = preferencesManager;
+        this.renderedRegions = Collections.synchronizedMap(new WeakHashMap<>());
+        this.renderLocks = Collections.synchronizedMap(new WeakHashMap<>());
         resamplerPath = preferencesManager.getResampler();
         wavtoolPath = preferencesManager.getWavtool();
     }
@@ -94,14 +114,23 @@ public class Engine {
      *
      * @return Whether or not there is any sound to export.
      */
-    public boolean renderWav(Song song, File finalDestination) {
-        Optional<File> finalSong = render(song, RegionBounds.WHOLE_SONG);
+    public boolean renderWav(SongSnapshot song, File finalDestination) {
+        RenderHandle handle = new RenderHandle(cacheManager);
+        // Exports get a render of their own, so they never rewrite a file that's being played.
+        Optional<File> finalSong = render(
+                song,
+                RegionBounds.WHOLE_SONG,
+                Priority.BACKGROUND,
+                false,
+                Optional.empty(),
+                handle);
         if (finalSong.isPresent()) {
             try {
                 FileUtils.copyFile(finalSong.get(), finalDestination);
             } catch (IOException e) {
                 errorLogger.logError(e);
             }
+            cacheManager.clearCache(finalSong.get());
         }
         return finalSong.isPresent();
     }
@@ -109,43 +138,92 @@ public class Engine {
     /**
      * Starts playback for a region of a song.
      *
+     * @param endCallback Called when playback ends, with whether the audio played to the end.
      * @return Whether or not there is any sound to play.
      */
     public boolean startPlayback(
-            Song song,
+            SongSnapshot song,
             RegionBounds bounds,
             Function<Duration, Void> startCallback,
-            Runnable endCallback) {
-        stopPlayback(); // Clear existing playback, if present.
-        Optional<File> finalSong = render(song, bounds);
-        if (finalSong.isPresent()) {
-            // Play instrumental, if present.
-            if (song.getInstrumental().isPresent()) {
-                Media instrumental = new Media(song.getInstrumental().get().toURI().toString());
-                System.out.println(instrumental.getSource());
-                instrumentalPlayer = new MediaPlayer(instrumental);
-                instrumentalPlayer.play();
-            }
+            Consumer<Boolean> endCallback) {
+        stopPlayback(); // Clear existing playback and its render, if present.
+        playbackTime = Duration.ZERO;
+        RenderHandle handle = new RenderHandle(cacheManager);
+        playbackRender = handle;
+        if (preferencesManager.getStreaming().equals(StreamingMode.ENABLED)) {
+            return startStreamingPlayback(song, bounds, startCallback, endCallback, handle);
+        }
+        Optional<File> finalSong =
+                render(song, bounds, Priority.INTERACTIVE, true, Optional.empty(), handle);
+        if (finalSong.isPresent() && !handle.isCancelled()) {
+            startInstrumental(song);
             Media media = new Media(finalSong.get().toURI().toString());
             mediaPlayer = new MediaPlayer(media);
+            AtomicBoolean playedToEnd = new AtomicBoolean(false);
             mediaPlayer.setOnReady(() -> startCallback.apply(media.getDuration()));
-            mediaPlayer.setOnEndOfMedia(() -> mediaPlayer.stop());
+            mediaPlayer.setOnEndOfMedia(() -> {
+                playbackTime = media.getDuration();
+                playedToEnd.set(true);
+                mediaPlayer.stop();
+            });
             mediaPlayer.setOnStopped(() -> {
                 // Explicitly release media and garbage collect player.
                 mediaPlayer.dispose();
                 mediaPlayer = null;
-                endCallback.run();
-                if (instrumentalPlayer != null) {
-                    instrumentalPlayer.stop();
-                    instrumentalPlayer.dispose();
-                }
+                endCallback.accept(playedToEnd.get());
+                stopInstrumental();
             });
             mediaPlayer.play();
         }
         return finalSong.isPresent();
     }
 
+    /**
+     * Starts playback as soon as the beginning of the region is rendered, and keeps rendering
+     * the rest of the region while it plays.
+     */
+    private boolean startStreamingPlayback(
+            SongSnapshot song,
+            RegionBounds bounds,
+            Function<Duration, Void> startCallback,
+            Consumer<Boolean> endCallback,
+            RenderHandle handle) {
+        Duration expectedDuration = estimateDuration(song, bounds);
+        StreamingPlayer player = new StreamingPlayer();
+        player.setOnPlaying(() -> Platform.runLater(() -> {
+            startInstrumental(song);
+            startCallback.apply(expectedDuration);
+        }));
+        player.setOnStopped(() -> Platform.runLater(() -> {
+            if (streamingPlayer == player) {
+                playbackTime = player.getPlaybackTime();
+                streamingPlayer = null;
+            }
+            endCallback.accept(player.playedToEnd());
+            stopInstrumental();
+        }));
+        streamingPlayer = player;
+        Optional<File> finalSong =
+                render(song, bounds, Priority.INTERACTIVE, true, Optional.of(player), handle);
+        if (handle.isCancelled()) {
+            player.stop(); // Anything left to play is out of date.
+            return false;
+        }
+        if (finalSong.isPresent() && !player.hasAudio()) {
+            // Play cached render.
+            BuiltInWavtool reader = new BuiltInWavtool();
+            reader.startRender();
+            reader.addWav(finalSong.get(), 0);
+            player.write(reader.toPcm(0, reader.getNumSamples()), reader.getFormat());
+        }
+        player.finish();
+        return finalSong.isPresent();
+    }
+
     public void pausePlayback() {
+        if (streamingPlayer != null) {
+            streamingPlayer.pause();
+        }
         if (mediaPlayer != null) {
             mediaPlayer.pause();
         }
@@ -155,6 +233,9 @@ public class Engine {
     }
 
     public void resumePlayback() {
+        if (streamingPlayer != null) {
+            streamingPlayer.resume();
+        }
         if (mediaPlayer != null) {
             mediaPlayer.play();
         }
@@ -164,12 +245,29 @@ public class Engine {
     }
 
     public void stopPlayback() {
+        cancelRender();
+        if (streamingPlayer != null) {
+            streamingPlayer.stop();
+        }
         if (mediaPlayer != null) {
             mediaPlayer.stop();
         }
     }
 
+    /**
+     * Cancels the render for the current playback, if it's still in progress.
+     */
+    public void cancelRender() {
+        if (playbackRender != null) {
+            playbackRender.cancel();
+            playbackRender = null;
+        }
+    }
+
     public PlaybackStatus getStatus() {
+        if (streamingPlayer != null) {
+            return streamingPlayer.getStatus();
+        }
         if (mediaPlayer != null) {
             switch (mediaPlayer.getStatus()) {
                 case PLAYING:
@@ -183,6 +281,37 @@ public class Engine {
         return PlaybackStatus.STOPPED;
     }
 
+    /**
+     * Gets how much of the current playback has been heard, taken from the audio clock.
+     */
+    public Duration getPlaybackTime() {
+        if (streamingPlayer != null) {
+            return streamingPlayer.getPlaybackTime();
+        }
+        if (mediaPlayer != null && (mediaPlayer.getStatus().equals(Status.PLAYING)
+                || mediaPlayer.getStatus().equals(Status.PAUSED))) {
+            playbackTime = mediaPlayer.getCurrentTime();
+        }
+        return playbackTime;
+    }
+
+    private void startInstrumental(SongSnapshot song) {
+        // Play instrumental, if present.
+        if (song.getInstrumental().isPresent()) {
+            Media instrumental = new Media(song.getInstrumental().get().toURI().toString());
+            System.out.println(instrumental.getSource());
+            instrumentalPlayer = new MediaPlayer(instrumental);
+            instrumentalPlayer.play();
+        }
+    }
+
+    private void stopInstrumental() {
+        if (instrumentalPlayer != null) {
+            instrumentalPlayer.stop();
+            instrumentalPlayer.dispose();
+        }
+    }
+
     /**
      * Play a note from a voicebank, using the current resampler.
      */
@@ -214,280 +343,425 @@ public class Engine {
         }
     }
 
-    private Optional<File> render(Song song, RegionBounds bounds) {
+    /**
+     * Renders a region of a song to a WAV file.
+     *
+     * @param priority Whether render tasks should be scheduled ahead of other renders.
+     * @param useSongCache Whether to reuse the song's last render and keep this one in its place.
+     * @param stream If present, receives audio as soon as each phrase is finished.
+     * @param handle Handle that can be used to cancel this render.
+     */
+    private Optional<File> render(
+            SongSnapshot song,
+            RegionBounds bounds,
+            Priority priority,
+            boolean useSongCache,
+            Optional<StreamingPlayer> stream,
+            RenderHandle handle) {
         // Use cached render if it exists and cache is enabled.
-        if (preferencesManager.getCache().equals(CacheMode.DISABLED)) {
-            song.clearCache();
-        } else if (bounds.equals(song.getCacheRegion())
-                && song.getCacheFile().isPresent()
-                && song.getCacheFile().get().exists()) {
+        boolean useCache = preferencesManager.getCache().equals(CacheMode.ENABLED);
+        if (!useCache) {
+            if (useSongCache) {
+                synchronized (getRenderLock(song)) {
+                    song.clearCache();
+                    renderedRegions.remove(song.getSong());
+                }
+            }
+        } else if (useSongCache
+                && bounds.equals(song.getCacheRegion())
+                && song.isCacheValid()) {
             return song.getCacheFile();
         }
 
-        // Set up a thread pool for asynchronous rendering.
-        ExecutorService executor = Executors.newFixedThreadPool(threadPoolSize);
-        ArrayList<Future<Runnable>> futures = new ArrayList<>();
-
-        NoteIterator notes = song.getNoteIterator(bounds);
-        if (!notes.hasNext()) {
+        Optional<RenderPlan> plan = RenderPlan.create(song, bounds);
+        if (plan.isEmpty() || handle.isCancelled()) {
             return Optional.empty();
         }
 
-        int startPosition = bounds.getMinMs();
-        int totalDelta = notes.getCurDelta(); // Absolute position of current note.
-        double scaleFactor = 125.0 / song.getTempo(); // TODO: Override with note tempo.
-        Voicebank voicebank = song.getVoicebank();
-        boolean isFirstNote = true;
-        final File finalSong = cacheManager.createRenderedCache();
-
-        while (notes.hasNext()) {
-            Note note = notes.next();
-            totalDelta += note.getDelta();
-
-            // Get lyric config.
-            Optional<LyricConfig> config = Optional.empty();
-            if (!note.getTrueLyric().isEmpty()) {
-                config = voicebank.getLyricConfig(note.getTrueLyric());
-            }
-            if (config.isEmpty()) {
-                // Make one last valiant effort to find the true lyric.
-                String prevLyric = getNearbyPrevLyric(notes.peekPrev());
-                String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
-                config = voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
-                if (config.isPresent()) {
-                    System.out.println("Would set true lyric.");
-                    //note.setTrueLyric(config.get().getTrueLyric());
+        // Notes are split into phrases at rests, and each phrase is concatenated separately.
+        ArrayList<Phrase> phrases = new ArrayList<>();
+        for (PhrasePlan phrasePlan : plan.get().getPhrases()) {
+            Phrase phrase = new Phrase(phrasePlan.getStartMs(), handle);
+            phrases.add(phrase);
+            if (useCache) {
+                // Reuse phrases that are unchanged since they were last rendered.
+                String cacheKey = getPhraseCacheKey(song, phrasePlan);
+                phrase.setCacheKey(cacheKey);
+                handle.pinNoteCache(cacheKey); // Keep phrase until it's spliced in.
+                Optional<File> cachedPhrase = cacheManager.getNoteCache(cacheKey);
+                if (cachedPhrase.isPresent()) {
+                    phrase.setOutputFile(cachedPhrase.get());
+                    continue;
                 }
             }
-
-            // Find preutterance of current and next notes.
-            double preutter = note.getRealPreutter();
-            Optional<Double> nextPreutter = Optional.empty();
-            if (notes.peekNext().isPresent()) {
-                nextPreutter = Optional.of(notes.peekNext().get().getRealPreutter());
-            }
-
-            // Possible silence before first note.
-            if (isFirstNote) {
-                if (notes.getCurDelta() - preutter > bounds.getMinMs()) {
-                    double firstNoteDelta =
-                            (notes.getCurDelta() - bounds.getMinMs()) * scaleFactor - preutter;
-                    addSilence(firstNoteDelta, 0, finalSong, executor, futures);
+            for (Step step : phrasePlan.getSteps()) {
+                if (handle.isCancelled()) {
+                    return Optional.empty();
                 }
-                isFirstNote = false;
-            }
-
-            // Add silence in place of note if lyric not found.
-            if (config.isEmpty()) {
-                System.out.println("Could not find config for lyric: " + note.getLyric());
-                if (notes.peekNext().isPresent()) {
-                    addSilence(
-                            note.getLength() * scaleFactor
-                                    - notes.peekNext().get().getRealPreutter(),
-                            totalDelta * scaleFactor,
-                            finalSong,
-                            executor,
-                            futures);
+                if (step instanceof SilenceStep) {
+                    // Silence is generated by the wavtool, so there's nothing to wait for.
+                    SilenceStep silence = (SilenceStep) step;
+                    phrase.addTask(CompletableFuture.completedFuture(
+                            (wavtool, outputFile, triggerSynthesis) -> wavtool.addSilence(
+                                    getWavtoolPath(),
+                                    silence.getDuration(),
+                                    silence.getExpectedDelta(),
+                                    outputFile,
+                                    triggerSynthesis)));
                 } else {
-                    // Case where the last note in the song is silent.
-                    addFinalSilence(
-                            note.getLength() * scaleFactor,
-                            totalDelta * scaleFactor,
-                            finalSong,
-                            executor,
-                            futures);
+                    phrase.addTask(scheduleNote(song, (NoteStep) step, priority, handle));
                 }
+            }
+        }
+
+        // When resampler finishes, run a wavtool over each phrase in parallel.
+        int numTasks = phrases.stream().mapToInt(Phrase::getNumTasks).sum();
+        AtomicInteger numFinished = new AtomicInteger(0);
+        Runnable updateProgress = () -> {
+            double curProgress = numFinished.incrementAndGet() * 1.0 / numTasks;
+            int numRunning = renderScheduler.getActiveCount();
+            int numQueued = renderScheduler.getQueueDepth();
+            Platform.runLater(() -> {
+                statusBar.setProgress(curProgress);
+                statusBar.setStatus("status.renderProgress", numRunning, numQueued);
+            });
+        };
+        // Phrases are spliced together in order, so finished audio can be streamed right away.
+        boolean splice = phrases.size() > 1 || stream.isPresent() || useCache;
+        final File finalSong = cacheManager.createRenderedCache();
+        handle.addOutputFile(finalSong);
+        ArrayList<Future<Void>> phraseFutures = new ArrayList<>();
+        for (Phrase curPhrase : phrases) {
+            if (curPhrase.getOutputFile() != null) {
+                phraseFutures.add(CompletableFuture.completedFuture(null)); // Already rendered.
                 continue;
             }
-            // System.out.println(config.get());
-
-            // Adjust note length based on preutterance/overlap.
-            double nextNoteEncroachment = 0;
-            if (notes.peekNext().isPresent() && areNotesTouching(
-                    Optional.of(note), voicebank, nextPreutter, song.getTempo())) {
-                Note nextNote = notes.peekNext().get();
-                double scaledGap = (note.getLength() - note.getDuration()) * scaleFactor;
-                nextNoteEncroachment = nextNote.getTrueLyric().isEmpty()
-                        ? 0 : nextNote.getRealPreutter() - scaledGap - nextNote.getFadeIn();
+            if (splice) {
+                File phraseFile = cacheManager.createPhraseCache();
+                handle.addTempFile(phraseFile);
+                curPhrase.setOutputFile(phraseFile);
+            } else {
+                curPhrase.setOutputFile(finalSong);
             }
-            double adjustedLength =
-                    (note.getDuration() * scaleFactor) + preutter - nextNoteEncroachment;
-            System.out.println("Real duration is " + adjustedLength);
-
-            // Calculate pitchbends.
-            int firstStep = getFirstPitchStep(totalDelta, preutter);
-            int lastStep = getLastPitchStep(totalDelta, preutter, adjustedLength);
-            String pitchString = song.getPitchString(firstStep, lastStep, note.getNoteNum());
-
-            // Apply resampler in separate thread and schedule wavtool.
-            final LyricConfig curConfig = config.get();
-            final boolean includeOverlap = areNotesTouching(
-                    notes.peekPrev(), voicebank, Optional.of(preutter), song.getTempo());
-            final boolean isLastNote = notes.peekNext().isEmpty();
-            final int currentTotalDelta = totalDelta;
-            final double expectedDelta = totalDelta - preutter;
-            final double noteAddOn = preutter - nextNoteEncroachment;
-            futures.add(executor.submit(() -> {
-                // Re-samples lyric and puts result into renderedNote file.
-                File renderedNote;
-                if (preferencesManager.getCache().equals(CacheMode.DISABLED)) {
-                    song.clearNoteCache(currentTotalDelta, currentTotalDelta);
+            Future<Void> phraseFuture = renderScheduler.submitConcatenate(() -> {
+                boolean succeeded = concatenatePhrase(curPhrase, updateProgress);
+                // Only cache phrases where every resampler and wavtool call finished cleanly.
+                if (succeeded && curPhrase.getCacheKey().isPresent()
+                        && !Thread.currentThread().isInterrupted()) {
+                    curPhrase.setOutputFile(cacheManager.storeNoteCache(
+                            curPhrase.getCacheKey().get(), curPhrase.getOutputFile()));
                 }
-                if (note.getCacheFile().isEmpty()) {
-                    renderedNote = cacheManager.createNoteCache();
-                    if (preferencesManager.getCache().equals(CacheMode.ENABLED)) {
-                        note.setCacheFile(Optional.of(renderedNote));
-                    }
-                    resampler.resample(
-                            getResamplerPath(),
-                            note,
-                            adjustedLength,
-                            curConfig,
-                            renderedNote,
-                            pitchString,
-                            song);
-                } else {
-                    renderedNote = note.getCacheFile().get();
+                return null;
+            }, priority);
+            handle.addTask(phraseFuture);
+            phraseFutures.add(phraseFuture);
+        }
+        double renderStartMs = plan.get().getStartMs();
+        BuiltInWavtool splicer = new BuiltInWavtool();
+        splicer.startRender();
+        int numStreamedSamples = 0;
+        try {
+            if (useCache && useSongCache && stream.isEmpty()) {
+                // If only some phrases changed, patch them into the previous render.
+                for (Future<Void> phraseFuture : phraseFutures) {
+                    phraseFuture.get();
                 }
-                return () -> {
-                    wavtool.addNewNote(
-                            getWavtoolPath(),
-                            song,
-                            note,
-                            adjustedLength,
-                            expectedDelta,
-                            renderedNote,
-                            finalSong,
-                            includeOverlap,
-                            isLastNote);
-                };
-            }));
-
-            // Possible silence after each note.
-            if (notes.peekNext().isPresent() && !areNotesTouching(
-                    Optional.of(note), voicebank, nextPreutter, song.getTempo())) {
-                // Add silence
-                double silenceLength;
-                if (nextPreutter.isPresent()) {
-                    silenceLength = (note.getLength() - note.getDuration()) * scaleFactor
-                            - nextPreutter.get();
-                } else {
-                    silenceLength = (note.getLength() - note.getDuration()) * scaleFactor;
+                Optional<File> patchedSong = patchRender(song, bounds, phrases, renderStartMs);
+                if (patchedSong.isPresent()) {
+                    Platform.runLater(() -> statusBar.setProgress(1.0)); // Mark as complete.
+                    handle.finish();
+                    return patchedSong;
                 }
-                addSilence(
-                        silenceLength,
-                        (totalDelta + note.getDuration()) * scaleFactor,
-                        finalSong,
-                        executor,
-                        futures);
             }
-        }
-
-        // When resampler finishes, run wavtool on notes in sequential order.
-        wavtool.startRender(startPosition * scaleFactor);
-        for (int i = 0; i < futures.size(); i++) {
-            try {
-                double curProgress = i * 1.0 / futures.size();
-                Platform.runLater(() -> statusBar.setProgress(curProgress));
-                futures.get(i).get().run();
-            } catch (InterruptedException | ExecutionException e) {
+            for (int i = 0; i < phrases.size(); i++) {
+                phraseFutures.get(i).get();
+                if (!splice) {
+                    continue;
+                }
+                Phrase curPhrase = phrases.get(i);
+                splicer.addWav(curPhrase.getOutputFile(), curPhrase.getStartMs() - renderStartMs);
+                if (!useCache) {
+                    cacheManager.clearCache(curPhrase.getOutputFile());
+                }
+                if (stream.isPresent()) {
+                    // Later phrases can't affect any audio before the start of the next phrase.
+                    int numFinishedSamples = i < phrases.size() - 1
+                            ? splicer.msToSamples(phrases.get(i + 1).getStartMs() - renderStartMs)
+                            : splicer.getNumSamples();
+                    stream.get().write(
+                            splicer.toPcm(numStreamedSamples, numFinishedSamples),
+                            splicer.getFormat());
+                    numStreamedSamples = Math.max(numStreamedSamples, numFinishedSamples);
+                }
+            }
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            if (!handle.isCancelled()) {
                 errorLogger.logError(e);
-                return Optional.empty();
+                handle.cancel(); // Free up the shared scheduler for other renders.
             }
+            return Optional.empty();
+        }
+        if (splice) {
+            splicer.finishRender(finalSong);
         }
         Platform.runLater(() -> statusBar.setProgress(1.0)); // Mark task as complete.
-        executor.shutdown(); // Shut down thread pool
 
-        if (preferencesManager.getCache().equals(CacheMode.ENABLED)) {
-            song.setCache(bounds, finalSong); // Cache region that was played.
+        if (useCache) {
+            if (useSongCache) {
+                recordRender(song, bounds, finalSong, phrases, renderStartMs);
+            }
         } else {
             cacheManager.clearNotes(); // Clear note cache if we aren't keeping caches.
         }
-        cacheManager.clearSilences(); // Clear all silence temp files.
+        handle.finish(); // Clear this render's phrase temp files.
         return Optional.of(finalSong);
     }
 
-    private void addSilence(
-            double duration,
-            double totalDelta,
-            File finalSong,
-            ExecutorService executor,
-            ArrayList<Future<Runnable>> futures) {
-        if (duration <= 0.0) {
-            return;
-        }
-        File renderedSilence = cacheManager.createSilenceCache();
-        futures.add(executor.submit(() -> {
-            resampler.resampleSilence(getResamplerPath(), renderedSilence, duration);
-            return () -> {
-                wavtool.addSilence(
-                        getWavtoolPath(),
-                        duration,
-                        totalDelta,
-                        renderedSilence,
-                        finalSong,
-                        false);
-            };
-        }));
+    /**
+     * Rewrites the phrases that changed in the song's previous render of the same region.
+     *
+     * @return The patched render, or empty if the region needs to be spliced from scratch.
+     */
+    private Optional<File> patchRender(
+            SongSnapshot song, RegionBounds bounds, List<Phrase> phrases, double renderStartMs) {
+        Optional<List<PhraseRecord>> records = getPhraseRecords(phrases, renderStartMs);
+        if (records.isEmpty()) {
+            return Optional.empty();
+        }
+        // Hold the lock until the record matches the file again.
+        synchronized (getRenderLock(song)) {
+            RenderedRegion previous = renderedRegions.get(song.getSong());
+            if (!song.isUpToDate() // Don't overwrite the cache with an older version.
+                    || previous == null
+                    || !song.getCacheFile().equals(Optional.of(previous.getOutputFile()))) {
+                return Optional.empty();
+            }
+            Optional<RenderedRegion> patched = previous.patch(bounds, records.get());
+            if (patched.isEmpty()) {
+                return Optional.empty();
+            }
+            renderedRegions.put(song.getSong(), patched.get());
+            song.setCache(bounds, previous.getOutputFile());
+            return Optional.of(previous.getOutputFile());
+        }
     }
 
-    private void addFinalSilence(
-            double duration,
-            double totalDelta,
+    /**
+     * Caches a render of the song and keeps track of where each phrase went in it, so it can be
+     * patched later.
+     */
+    private void recordRender(
+            SongSnapshot song,
+            RegionBounds bounds,
             File finalSong,
-            ExecutorService executor,
-            ArrayList<Future<Runnable>> futures) {
-        // The final note must be passed to the wavtool.
-        double trueDuration = Math.max(duration, 0);
-        File renderedSilence = cacheManager.createSilenceCache();
-        futures.add(executor.submit(() -> {
-            resampler.resampleSilence(getResamplerPath(), renderedSilence, trueDuration);
-            return () -> {
-                wavtool.addSilence(
-                        getWavtoolPath(),
-                        trueDuration,
-                        totalDelta,
-                        renderedSilence,
-                        finalSong,
-                        true);
-            };
-        }));
+            List<Phrase> phrases,
+            double renderStartMs) {
+        Optional<List<PhraseRecord>> records = getPhraseRecords(phrases, renderStartMs);
+        synchronized (getRenderLock(song)) {
+            if (!song.setCache(bounds, finalSong)) {
+                return; // Song changed during the render, so keep the newer cache.
+            }
+            if (records.isPresent()) {
+                renderedRegions.put(
+                        song.getSong(), new RenderedRegion(bounds, finalSong, records.get()));
+            } else {
+                renderedRegions.remove(song.getSong());
+            }
+        }
     }
 
-    // Returns empty string if there is no nearby (within DEFAULT_NOTE_DURATION) previous note.
-    private static String getNearbyPrevLyric(Optional<Note> prev) {
-        if (prev.isPresent() && prev.get().getLength()
-                - prev.get().getDuration() > Quantizer.DEFAULT_NOTE_DURATION) {
-            return prev.get().getLyric();
+    /** Gets the lock that must be held while changing a song's cached render or its record. */
+    private Object getRenderLock(SongSnapshot song) {
+        return renderLocks.computeIfAbsent(song.getSong(), key -> new Object());
+    }
+
+    private static Optional<List<PhraseRecord>> getPhraseRecords(
+            List<Phrase> phrases, double renderStartMs) {
+        List<PhraseRecord> records = new ArrayList<>();
+        for (Phrase phrase : phrases) {
+            if (phrase.getCacheKey().isEmpty()) {
+                return Optional.empty();
+            }
+            Optional<PhraseRecord> record = PhraseRecord.create(
+                    phrase.getCacheKey().get(),
+                    phrase.getOutputFile(),
+                    phrase.getStartMs() - renderStartMs);
+            if (record.isEmpty()) {
+                return Optional.empty();
+            }
+            records.add(record.get());
         }
-        return "";
+        return Optional.of(records);
     }
 
-    private static int getFirstPitchStep(int totalDelta, double preutter) {
-        return (int) Math.ceil((totalDelta - preutter) / 5.0);
+    /**
+     * Gets a cache key for a phrase that covers everything that affects its output, including
+     * the resampler inputs of each of its notes.
+     */
+    private String getPhraseCacheKey(SongSnapshot song, PhrasePlan phrasePlan) {
+        File curWavtoolPath = getWavtoolPath();
+        List<String> keyParts = new ArrayList<>();
+        keyParts.add(preferencesManager.getWavtoolMode().name());
+        keyParts.add(curWavtoolPath.getAbsolutePath());
+        keyParts.add(Long.toString(curWavtoolPath.lastModified()));
+        keyParts.add(Double.toString(song.getTempo()));
+        keyParts.add(Double.toString(phrasePlan.getStartMs()));
+        for (Step step : phrasePlan.getSteps()) {
+            if (step instanceof SilenceStep) {
+                SilenceStep silence = (SilenceStep) step;
+                keyParts.add("R");
+                keyParts.add(Double.toString(silence.getDuration()));
+                keyParts.add(Double.toString(silence.getExpectedDelta()));
+                continue;
+            }
+            NoteStep noteStep = (NoteStep) step;
+            Note note = noteStep.getNote();
+            keyParts.add(resampler.getCacheKey(
+                    getResamplerPath(),
+                    note,
+                    noteStep.getAdjustedLength(),
+                    noteStep.getConfig(),
+                    noteStep.getPitchString(),
+                    song));
+            keyParts.add(Double.toString(noteStep.getAdjustedLength()));
+            keyParts.add(Double.toString(noteStep.getExpectedDelta()));
+            keyParts.add(Boolean.toString(noteStep.includeOverlap()));
+            keyParts.add(Double.toString(note.getRealStartPoint()));
+            keyParts.add(Double.toString(note.getFadeIn()));
+            StringJoiner envelope = new StringJoiner(",");
+            for (double value : note.getRawFullEnvelope()) {
+                envelope.add(Double.toString(value));
+            }
+            keyParts.add(envelope.toString());
+        }
+        return cacheManager.getNoteCacheKey(keyParts);
     }
 
-    private static int getLastPitchStep(int totalDelta, double preutter, double adjustedLength) {
-        return (int) Math.floor((totalDelta - preutter + adjustedLength) / 5.0);
+    /**
+     * Runs a phrase's wavtool tasks in order as their resampler output becomes available.
+     *
+     * @return Whether every task finished cleanly.
+     */
+    private boolean concatenatePhrase(Phrase phrase, Runnable onTaskFinished)
+            throws InterruptedException, ExecutionException {
+        Wavtool wavtool = wavtoolProvider.get();
+        wavtool.startRender(phrase.getStartMs());
+        boolean succeeded = true;
+        for (int i = 0; i < phrase.getNumTasks(); i++) {
+            boolean isLastTask = i == phrase.getNumTasks() - 1;
+            succeeded &= phrase.getTask(i).get().run(wavtool, phrase.getOutputFile(), isLastTask);
+            onTaskFinished.run();
+        }
+        return succeeded;
     }
 
-    // Determines whether two notes are "touching" given the second note's preutterance.
-    private static boolean areNotesTouching(
-            Optional<Note> note,
-            Voicebank voicebank,
-            Optional<Double> nextPreutter,
-            double tempo) {
-        if (note.isEmpty() || nextPreutter.isEmpty()) {
-            return false;
+    /** Resamples a note in a separate thread, then returns its wavtool call. */
+    private Future<WavtoolTask> scheduleNote(
+            SongSnapshot song, NoteStep step, Priority priority, RenderHandle handle) {
+        Note note = step.getNote();
+        String pitchString = step.getPitchString();
+        return renderScheduler.submitResample(() -> {
+            // Re-samples lyric and puts result into renderedNote file. Notes that were
+            // already rendered are found in the persistent note cache.
+            boolean useCache = preferencesManager.getCache().equals(CacheMode.ENABLED);
+            File renderedNote = resampler.resample(
+                    getResamplerPath(),
+                    note,
+                    step.getAdjustedLength(),
+                    step.getConfig(),
+                    pitchString,
+                    song,
+                    useCache,
+                    handle);
+            return (wavtool, outputFile, triggerSynthesis) -> wavtool.addNewNote(
+                    getWavtoolPath(),
+                    song,
+                    note,
+                    step.getAdjustedLength(),
+                    step.getExpectedDelta(),
+                    renderedNote,
+                    outputFile,
+                    step.includeOverlap(),
+                    triggerSynthesis);
+        }, priority);
+    }
+
+    /** A wavtool call that can be made once the resampler has finished. */
+    private interface WavtoolTask {
+        /** Returns whether the wavtool call finished cleanly. */
+        boolean run(Wavtool wavtool, File outputFile, boolean triggerSynthesis);
+    }
+
+    /**
+     * A run of notes with no rests between them. Phrases don't overlap, so each can be
+     * concatenated by its own wavtool.
+     */
+    private static class Phrase {
+        private final double startMs; // Start of phrase in ms, with tempo applied.
+        private final RenderHandle handle;
+        private final ArrayList<Future<WavtoolTask>> tasks;
+        private Optional<String> cacheKey; // Only set if the phrase should be cached.
+        private volatile File outputFile;
+
+        Phrase(double startMs, RenderHandle handle) {
+            this.startMs = startMs;
+            this.handle = handle;
+            this.tasks = new ArrayList<>();
+            this.cacheKey = Optional.empty();
         }
 
-        // Return false if current note cannot be rendered.
-        if (voicebank.getLyricConfig(note.get().getTrueLyric()).isEmpty()) {
-            return false;
+        double getStartMs() {
+            return startMs;
+        }
+
+        void addTask(Future<WavtoolTask> task) {
+            handle.addTask(task);
+            tasks.add(task);
+        }
+
+
+        Future<WavtoolTask> getTask(int index) {
+            return tasks.get(index);
+        }
+
+        int getNumTasks() {
+            return tasks.size();
         }
 
-        double scaleFactor = 125.0 / tempo;
-        double scaledGap = (note.get().getLength() - note.get().getDuration()) * scaleFactor;
-        return scaledGap <= nextPreutter.get();
+        Optional<String> getCacheKey() {
+            return cacheKey;
+        }
+
+        void setCacheKey(String cacheKey) {
+            this.cacheKey = Optional.of(cacheKey);
+        }
+
+        File getOutputFile() {
+            return outputFile;
+        }
+
+        void setOutputFile(File outputFile) {
+            this.outputFile = outputFile;
+        }
+    }
+
+    // Estimates the length of a render before it finishes, based on the notes in the region.
+    private static Duration estimateDuration(SongSnapshot song, RegionBounds bounds) {
+        NoteIterator notes = song.getNoteIterator(bounds);
+        double scaleFactor = 125.0 / song.getTempo();
+        int totalDelta = notes.getCurDelta();
+        double startMs = bounds.getMinMs() * scaleFactor;
+        double endMs = startMs;
+        boolean isFirstNote = true;
+        while (notes.hasNext()) {
+            Note note = notes.next();
+            totalDelta += note.getDelta();
+            if (isFirstNote) {
+                startMs = Math.min(startMs, totalDelta * scaleFactor - note.getRealPreutter());
+                isFirstNote = false;
+            }
+            endMs = (totalDelta + note.getDuration()) * scaleFactor;
+        }
+        return Duration.millis(Math.max(0, endMs - startMs));
     }
 }
@@ -5,30 +5,87 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import com.utsusynth.utsu.common.exception.ErrorLogger;
 
 /**
- * Class that runs an external command-line process with the provided arguments.
+ * Singleton class that runs external command-line processes with the provided arguments, and
+ * supervises every process that is still running.
  */
 public class ExternalProcessRunner {
+    public enum Outcome {
+        EXITED, TIMED_OUT, INTERRUPTED, FAILED_TO_START,
+    }
+
     private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    public static final long NO_TIMEOUT = 0;
+    private static final long DEFAULT_TIMEOUT_MS = 60 * 1000;
+    private static final int MAX_RECENT_OUTPUT = 200; // Lines of output kept for diagnostics.
 
-    private Process curProcess;
+    private final Set<Process> liveProcesses;
+    private final ExecutorService outputDrainers; // Reuses threads across processes.
+    private final ArrayDeque<String> recentOutput;
+    private final LongAdder numProcesses;
+    private final LongAdder numExited; // Processes that exited on their own.
+    private final LongAdder totalSpawnNanos; // Time spent starting processes.
+    private final LongAdder totalExitNanos; // Time from starting processes to their exit.
 
     public ExternalProcessRunner() {
+        liveProcesses = ConcurrentHashMap.newKeySet();
+        // Enough threads for every resampler and wavtool that can run at once. Output of any
+        // other process waits in its pipe until a thread is free.
+        int numDrainers = 4 * Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor drainers = new ThreadPoolExecutor(
+                numDrainers,
+                numDrainers,
+                30,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "utsu-process-output");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        drainers.allowCoreThreadTimeOut(true); // Release threads when nothing is running.
+        outputDrainers = drainers;
+        recentOutput = new ArrayDeque<>();
+        numProcesses = new LongAdder();
+        numExited = new LongAdder();
+        totalSpawnNanos = new LongAdder();
+        totalExitNanos = new LongAdder();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             // Destroy any ongoing processes when Utsu closes.
-            if (curProcess != null && curProcess.isAlive()) {
-                curProcess.destroy();
+            for (Process process : liveProcesses) {
+                process.destroy();
             }
+            printStats();
         }));
     }
 
-    public void runProcess(String... args) {
-        runProcess(null, args);
+    /** Runs a process, killing it if it hasn't finished after a minute. */
+    public ProcessResult runProcess(String... args) {
+        return runProcess(DEFAULT_TIMEOUT_MS, null, args);
+    }
+
+    public ProcessResult runProcess(File workingDir, String... args) {
+        return runProcess(DEFAULT_TIMEOUT_MS, workingDir, args);
     }
 
-    public void runProcess(File workingDir, String... args) {
+    /**
+     * Runs a process and waits for it to finish.
+     *
+     * @param timeoutMs How long to wait before killing the process, or NO_TIMEOUT to wait forever.
+     * @param workingDir Working directory of the process, or null to use the current directory.
+     * @return How the process ended, so callers can discard the output of a failed process.
+     */
+    public ProcessResult runProcess(long timeoutMs, File workingDir, String... args) {
         // Uncomment these lines to see calls to resampler/wavtool.
         //StringBuilder argString = new StringBuilder();
         //for (String arg : args) {
@@ -40,27 +97,114 @@ public class ExternalProcessRunner {
         if (workingDir != null) {
             builder.directory(workingDir);
         }
+        String processName = new File(args[0]).getName();
+        Process process = null;
+        long startTime = System.nanoTime();
         try {
-            curProcess = builder.start();
-            watch(curProcess.getInputStream());
-            curProcess.waitFor();
-        } catch (IOException | InterruptedException e) {
+            process = builder.start();
+            liveProcesses.add(process);
+            totalSpawnNanos.add(System.nanoTime() - startTime);
+            numProcesses.increment();
+            watch(process.getInputStream(), processName);
+            if (timeoutMs == NO_TIMEOUT) {
+                process.waitFor();
+            } else if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+                System.out.println("Warning: Process timed out: " + processName);
+                printRecentOutput(processName);
+                process.destroyForcibly();
+                return new ProcessResult(Outcome.TIMED_OUT, -1);
+            }
+            totalExitNanos.add(System.nanoTime() - startTime);
+            numExited.increment();
+            return new ProcessResult(Outcome.EXITED, process.exitValue());
+        } catch (IOException e) {
             errorLogger.logError(e);
+            return new ProcessResult(Outcome.FAILED_TO_START, -1);
+        } catch (InterruptedException e) {
+            // Render was cancelled, so its process is no longer needed.
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            Thread.currentThread().interrupt(); // Let caller know it was interrupted.
+            return new ProcessResult(Outcome.INTERRUPTED, -1);
+        } finally {
+            if (process != null) {
+                liveProcesses.remove(process);
+            }
         }
     }
 
-    private void watch(final InputStream inputStream) {
-        new Thread(() -> {
+    /** Prints the last lines a process wrote, to help find out why it got stuck. */
+    private void printRecentOutput(String processName) {
+        String prefix = processName + ": ";
+        synchronized (recentOutput) {
+            for (String line : recentOutput) {
+                if (line.startsWith(prefix)) {
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+
+    /** Prints how many processes ran and how long they took on average. */
+    private void printStats() {
+        long numStarted = numProcesses.sum();
+        long numFinished = numExited.sum();
+        if (numStarted == 0) {
+            return;
+        }
+        System.out.println(String.format(
+                "Ran %d processes, %d of which exited on their own. "
+                        + "Average start time: %.1f ms, average run time: %.1f ms.",
+                numStarted,
+                numFinished,
+                totalSpawnNanos.sum() / 1000000.0 / numStarted,
+                numFinished == 0 ? 0 : totalExitNanos.sum() / 1000000.0 / numFinished));
+    }
+
+    private void watch(final InputStream inputStream, String processName) {
+        outputDrainers.execute(() -> {
             BufferedReader input = new BufferedReader(new InputStreamReader(inputStream));
             String line;
             try {
                 while ((line = input.readLine()) != null) {
                     // Uncomment this line to see output from resampler/wavtool.
                     // System.out.println(line);
+                    synchronized (recentOutput) {
+                        if (recentOutput.size() >= MAX_RECENT_OUTPUT) {
+                            recentOutput.removeFirst();
+                        }
+                        recentOutput.addLast(processName + ": " + line);
+                    }
                 }
             } catch (IOException e) {
-                errorLogger.logError(e);
+                // Expected if the process was killed while writing output.
             }
-        }).start();
+        });
+    }
+
+    /** How a process ended, and its exit code if it exited on its own. */
+    public static class ProcessResult {
+        private final Outcome outcome;
+        private final int exitCode;
+
+        ProcessResult(Outcome outcome, int exitCode) {
+            this.outcome = outcome;
+            this.exitCode = exitCode;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /** Exit code of the process, or -1 if it was killed or never started. */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /** Whether the process ran to completion and exited with code 0. */
+        public boolean isSuccess() {
+            return outcome == Outcome.EXITED && exitCode == 0;
+        }
     }
 }
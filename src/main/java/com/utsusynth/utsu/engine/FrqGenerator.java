@@ -20,11 +20,16 @@ public class FrqGenerator {
         this.samplesPerFrq = samplesPerFrq;
     }
 
-    public void genFrqFile(File input, File output) {
-        runner.runProcess(
+    /**
+     * Generates an frq file for a wav file.
+     *
+     * @return Whether the generator exited cleanly.
+     */
+    public boolean genFrqFile(File input, File output) {
+        return runner.runProcess(
                 frqGeneratorPath.getAbsolutePath(),
                 fileNameFixer.getFixedName(input.getAbsolutePath()),
                 output.getAbsolutePath(),
-                Integer.toString(samplesPerFrq));
+                Integer.toString(samplesPerFrq)).isSuccess();
     }
 }
@@ -0,0 +1,108 @@
+package com.utsusynth.utsu.engine;
+
+import com.utsusynth.utsu.files.CacheManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Handle to a single render, which can be used to cancel it. Cancelling interrupts any queued
+ * or running tasks, which stops their resampler/wavtool processes, and deletes the render's
+ * partial output.
+ */
+public class RenderHandle {
+    private final CacheManager cacheManager;
+    private final List<Future<?>> tasks;
+    private final List<File> tempFiles;
+    private final List<File> outputFiles;
+    private final List<String> pinnedNotes; // Note cache entries this render reads.
+    private boolean cancelled;
+    private boolean finished;
+
+    RenderHandle(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        tasks = new ArrayList<>();
+        tempFiles = new ArrayList<>();
+        outputFiles = new ArrayList<>();
+        pinnedNotes = new ArrayList<>();
+        cancelled = false;
+        finished = false;
+    }
+
+    /** Tracks a task so it can be interrupted if the render is cancelled. */
+    synchronized void addTask(Future<?> task) {
+        if (cancelled) {
+            task.cancel(true);
+            return;
+        }
+        tasks.add(task);
+    }
+
+    /** Tracks an intermediate file that should be deleted once the render ends. */
+    synchronized void addTempFile(File tempFile) {
+        tempFiles.add(tempFile);
+    }
+
+    /** Tracks an output file that should be deleted if the render is cancelled. */
+    synchronized void addOutputFile(File outputFile) {
+        outputFiles.add(outputFile);
+    }
+
+    /**
+     * Keeps a note cache entry from being evicted by other renders until this render ends.
+     * Should be called before the entry is looked up or stored.
+     */
+    synchronized void pinNoteCache(String key) {
+        if (cancelled || finished) {
+            return; // Nothing will read the entry.
+        }
+        cacheManager.pinNoteCache(key);
+        pinnedNotes.add(key);
+    }
+
+    /** Marks the render as complete and cleans up intermediate files. */
+    synchronized void finish() {
+        finished = true;
+        tasks.clear();
+        clearFiles(tempFiles);
+        outputFiles.clear();
+        unpinNotes();
+    }
+
+    /** Stops the render if it is still in progress. Does nothing once the render finishes. */
+    public synchronized void cancel() {
+        if (cancelled || finished) {
+            return;
+        }
+        cancelled = true;
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+        tasks.clear();
+        clearFiles(tempFiles);
+        clearFiles(outputFiles);
+        unpinNotes();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void unpinNotes() {
+        for (String key : pinnedNotes) {
+            cacheManager.unpinNoteCache(key);
+        }
+        pinnedNotes.clear();
+    }
+
+    private void clearFiles(List<File> files) {
+        for (File file : files) {
+            if (file.exists()) {
+                cacheManager.clearCache(file);
+            }
+        }
+        files.clear();
+    }
+}
@@ -0,0 +1,305 @@
+package com.utsusynth.utsu.engine;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.common.quantize.Quantizer;
+import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.model.song.Note;
+import com.utsusynth.utsu.model.song.NoteIterator;
+import com.utsusynth.utsu.model.song.SongSnapshot;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
+import com.utsusynth.utsu.model.voicebank.Voicebank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Timing and lyric configs for every note in a render region, worked out in a single pass over
+ * the notes. The resampler and wavtool stages both read from the plan, and a plan stays valid
+ * for as long as the notes in its region are unchanged.
+ */
+class RenderPlan {
+    private final double startMs; // Start of render in ms, with tempo applied.
+    private final ImmutableList<PhrasePlan> phrases;
+
+    private RenderPlan(double startMs, ImmutableList<PhrasePlan> phrases) {
+        this.startMs = startMs;
+        this.phrases = phrases;
+    }
+
+    /** Plans a render of the given region, or returns empty if it has no notes. */
+    static Optional<RenderPlan> create(SongSnapshot song, RegionBounds bounds) {
+        NoteIterator notes = song.getNoteIterator(bounds);
+        if (!notes.hasNext()) {
+            return Optional.empty();
+        }
+
+        int totalDelta = notes.getCurDelta(); // Absolute position of current note.
+        double scaleFactor = 125.0 / song.getTempo(); // TODO: Override with note tempo.
+        double renderStartMs = bounds.getMinMs() * scaleFactor;
+        Voicebank voicebank = song.getVoicebank();
+        PlanBuilder builder = new PlanBuilder();
+        builder.startPhrase(renderStartMs);
+        boolean isFirstNote = true;
+        boolean touchesPrev = false; // Whether the previous note touches the current one.
+
+        while (notes.hasNext()) {
+            Note note = notes.next();
+            totalDelta += note.getDelta();
+            Optional<Note> nextNote = notes.peekNext();
+
+            // Get lyric config. Only a note found by its true lyric can touch the next note.
+            Optional<LyricConfig> config = Optional.empty();
+            if (!note.getTrueLyric().isEmpty()) {
+                config = voicebank.getLyricConfig(note.getTrueLyric());
+            }
+            boolean canTouchNext = config.isPresent();
+            if (config.isEmpty()) {
+                // Make one last valiant effort to find the true lyric.
+                String prevLyric = getNearbyPrevLyric(notes.peekPrev());
+                String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
+                config = voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
+            }
+
+            // Find preutterance of current and next notes.
+            double preutter = note.getRealPreutter();
+            double nextPreutter = nextNote.isPresent() ? nextNote.get().getRealPreutter() : 0;
+            double scaledGap = (note.getLength() - note.getDuration()) * scaleFactor;
+            boolean touchesNext = nextNote.isPresent() && canTouchNext && scaledGap <= nextPreutter;
+            // The first note may touch a note from before the region.
+            boolean includeOverlap = isFirstNote
+                    ? isTouchingFromBefore(notes.peekPrev(), voicebank, preutter, scaleFactor)
+                    : touchesPrev;
+            touchesPrev = touchesNext;
+
+            // Possible silence before first note.
+            if (isFirstNote) {
+                if (notes.getCurDelta() - preutter > bounds.getMinMs()) {
+                    double firstNoteDelta =
+                            (notes.getCurDelta() - bounds.getMinMs()) * scaleFactor - preutter;
+                    builder.addSilence(firstNoteDelta, 0);
+                }
+                isFirstNote = false;
+            }
+
+            // Add silence in place of note if lyric not found.
+            if (config.isEmpty()) {
+                if (nextNote.isPresent()) {
+                    builder.addSilence(
+                            note.getLength() * scaleFactor - nextPreutter,
+                            totalDelta * scaleFactor);
+                } else {
+                    // Case where the last note in the song is silent.
+                    builder.addFinalSilence(
+                            note.getLength() * scaleFactor, totalDelta * scaleFactor);
+                }
+                continue;
+            }
+
+            // Adjust note length based on preutterance/overlap.
+            double nextNoteEncroachment = 0;
+            if (touchesNext && !nextNote.get().getTrueLyric().isEmpty()) {
+                nextNoteEncroachment = nextPreutter - scaledGap - nextNote.get().getFadeIn();
+            }
+            double adjustedLength =
+                    (note.getDuration() * scaleFactor) + preutter - nextNoteEncroachment;
+
+            // Calculate pitchbends.
+            int firstStep = getFirstPitchStep(totalDelta, preutter);
+            int lastStep = getLastPitchStep(totalDelta, preutter, adjustedLength);
+            builder.addNote(new NoteStep(
+                    note,
+                    config.get(),
+                    adjustedLength,
+                    totalDelta - preutter,
+                    song.getPitchString(firstStep, lastStep, note.getNoteNum()),
+                    includeOverlap));
+
+            // Possible silence after each note.
+            if (nextNote.isPresent() && !touchesNext) {
+                double silenceLength = scaledGap - nextPreutter;
+                double silenceStartMs = (totalDelta + note.getDuration()) * scaleFactor;
+                builder.addSilence(silenceLength, silenceStartMs);
+                // Next note starts a new phrase, since nothing overlaps across the rest.
+                builder.startPhrase(silenceStartMs + silenceLength);
+            }
+        }
+        return Optional.of(new RenderPlan(renderStartMs, builder.build()));
+    }
+
+    double getStartMs() {
+        return startMs;
+    }
+
+    /** Runs of notes with no rests between them, in order. */
+    ImmutableList<PhrasePlan> getPhrases() {
+        return phrases;
+    }
+
+    // Returns empty string if there is no nearby (within DEFAULT_NOTE_DURATION) previous note.
+    private static String getNearbyPrevLyric(Optional<Note> prev) {
+        if (prev.isPresent() && prev.get().getLength()
+                - prev.get().getDuration() > Quantizer.DEFAULT_NOTE_DURATION) {
+            return prev.get().getLyric();
+        }
+        return "";
+    }
+
+    // Whether a note before the render region touches the region's first note.
+    private static boolean isTouchingFromBefore(
+            Optional<Note> prev, Voicebank voicebank, double preutter, double scaleFactor) {
+        if (prev.isEmpty() || prev.get().getTrueLyric().isEmpty()) {
+            return false;
+        }
+        // Only a note that can be rendered touches the next note.
+        if (voicebank.getLyricConfig(prev.get().getTrueLyric()).isEmpty()) {
+            return false;
+        }
+        double scaledGap = (prev.get().getLength() - prev.get().getDuration()) * scaleFactor;
+        return scaledGap <= preutter;
+    }
+
+    private static int getFirstPitchStep(int totalDelta, double preutter) {
+        return (int) Math.ceil((totalDelta - preutter) / 5.0);
+    }
+
+    private static int getLastPitchStep(int totalDelta, double preutter, double adjustedLength) {
+        return (int) Math.floor((totalDelta - preutter + adjustedLength) / 5.0);
+    }
+
+    /** A run of notes and silences that doesn't overlap with any other phrase. */
+    static class PhrasePlan {
+        private final double startMs; // Start of phrase in ms, with tempo applied.
+        private final ImmutableList<Step> steps;
+
+        private PhrasePlan(double startMs, ImmutableList<Step> steps) {
+            this.startMs = startMs;
+            this.steps = steps;
+        }
+
+        double getStartMs() {
+            return startMs;
+        }
+
+        ImmutableList<Step> getSteps() {
+            return steps;
+        }
+    }
+
+    /** A single wavtool call. */
+    abstract static class Step {
+        private Step() {}
+    }
+
+    /** A note that needs to be resampled before it is passed to the wavtool. */
+    static class NoteStep extends Step {
+        private final Note note;
+        private final LyricConfig config;
+        private final double adjustedLength; // Length after preutterance/overlap, in ms.
+        private final double expectedDelta;
+        private final String pitchString;
+        private final boolean includeOverlap; // Whether note touches the previous note.
+
+        private NoteStep(
+                Note note,
+                LyricConfig config,
+                double adjustedLength,
+                double expectedDelta,
+                String pitchString,
+                boolean includeOverlap) {
+            this.note = note;
+            this.config = config;
+            this.adjustedLength = adjustedLength;
+            this.expectedDelta = expectedDelta;
+            this.pitchString = pitchString;
+            this.includeOverlap = includeOverlap;
+        }
+
+        Note getNote() {
+            return note;
+        }
+
+        LyricConfig getConfig() {
+            return config;
+        }
+
+        double getAdjustedLength() {
+            return adjustedLength;
+        }
+
+        double getExpectedDelta() {
+            return expectedDelta;
+        }
+
+        String getPitchString() {
+            return pitchString;
+        }
+
+        boolean includeOverlap() {
+            return includeOverlap;
+        }
+    }
+
+    /** A rest, which the wavtool can add without calling the resampler. */
+    static class SilenceStep extends Step {
+        private final double duration; // In ms, with tempo applied.
+        private final double expectedDelta; // In ms, with tempo applied.
+
+        private SilenceStep(double duration, double expectedDelta) {
+            this.duration = duration;
+            this.expectedDelta = expectedDelta;
+        }
+
+        double getDuration() {
+            return duration;
+        }
+
+        double getExpectedDelta() {
+            return expectedDelta;
+        }
+    }
+
+    private static class PlanBuilder {
+        private final ImmutableList.Builder<PhrasePlan> phrases;
+        private double phraseStartMs;
+        private List<Step> steps;
+
+        PlanBuilder() {
+            this.phrases = ImmutableList.builder();
+        }
+
+        void startPhrase(double startMs) {
+            finishPhrase();
+            phraseStartMs = startMs;
+            steps = new ArrayList<>();
+        }
+
+        void addNote(NoteStep noteStep) {
+            steps.add(noteStep);
+        }
+
+        void addSilence(double duration, double totalDelta) {
+            if (duration <= 0.0) {
+                return;
+            }
+            steps.add(new SilenceStep(duration, totalDelta));
+        }
+
+        void addFinalSilence(double duration, double totalDelta) {
+            // The final note must be passed to the wavtool.
+            steps.add(new SilenceStep(Math.max(duration, 0), totalDelta));
+        }
+
+        ImmutableList<PhrasePlan> build() {
+            finishPhrase();
+            return phrases.build();
+        }
+
+        private void finishPhrase() {
+            if (steps != null) {
+                phrases.add(new PhrasePlan(phraseStartMs, ImmutableList.copyOf(steps)));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.EnumMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide scheduler for render work, shared by every open song. Resampler calls run
+ * in one bounded pool where interactive playback is always scheduled ahead of background work
+ * like exports. Wavtool chains wait on resampler output, so they get a separate pool for each
+ * priority to keep a long export from holding up playback.
+ */
+public class RenderScheduler {
+    public enum Priority {
+        INTERACTIVE, BACKGROUND,
+    }
+
+    private final ThreadPoolExecutor resamplerPool;
+    private final EnumMap<Priority, ThreadPoolExecutor> wavtoolPools;
+    private final AtomicLong numSubmitted; // Keeps tasks of equal priority in order.
+
+    public RenderScheduler(int maxThreads) {
+        resamplerPool = createPool(maxThreads, "resampler", new PriorityBlockingQueue<>());
+        wavtoolPools = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            wavtoolPools.put(
+                    priority, createPool(maxThreads, "wavtool", new LinkedBlockingQueue<>()));
+        }
+        numSubmitted = new AtomicLong(0);
+    }
+
+    /** Schedules a resampler call or other work that does not wait on other render tasks. */
+    <T> Future<T> submitResample(Callable<T> task, Priority priority) {
+        return submit(resamplerPool, task, priority);
+    }
+
+    /** Schedules work that waits on resampler output, such as a wavtool chain. */
+    <T> Future<T> submitConcatenate(Callable<T> task, Priority priority) {
+        return submit(wavtoolPools.get(priority), task, priority);
+    }
+
+    /** Number of resampler tasks waiting for a free thread. */
+    public int getQueueDepth() {
+        return resamplerPool.getQueue().size();
+    }
+
+    /** Number of resampler tasks currently running. */
+    public int getActiveCount() {
+        return resamplerPool.getActiveCount();
+    }
+
+    private <T> Future<T> submit(ThreadPoolExecutor pool, Callable<T> task, Priority priority) {
+        PrioritizedTask<T> prioritizedTask =
+                new PrioritizedTask<>(task, priority, numSubmitted.getAndIncrement());
+        pool.execute(prioritizedTask);
+        return prioritizedTask;
+    }
+
+    private static ThreadPoolExecutor createPool(
+            int maxThreads, String name, BlockingQueue<Runnable> queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                60,
+                TimeUnit.SECONDS,
+                queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "utsu-" + name);
+                    thread.setDaemon(true); // Don't keep the app open.
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true); // Release threads when nothing is rendering.
+        return pool;
+    }
+
+    private static class PrioritizedTask<T> extends FutureTask<T>
+            implements Comparable<PrioritizedTask<?>> {
+        private final Priority priority;
+        private final long order;
+
+        PrioritizedTask(Callable<T> task, Priority priority, long order) {
+            super(task);
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.utsusynth.utsu.engine;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Record of which phrases went into a rendered region, and where each one is in the output.
+ * A later render of the same region can use it to rewrite only the parts of the output that
+ * belong to phrases that changed.
+ */
+class RenderedRegion {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+
+    private final RegionBounds bounds;
+    private final File outputFile;
+    private final ImmutableList<PhraseRecord> phrases;
+
+    RenderedRegion(RegionBounds bounds, File outputFile, List<PhraseRecord> phrases) {
+        this.bounds = bounds;
+        this.outputFile = outputFile;
+        this.phrases = ImmutableList.copyOf(phrases);
+    }
+
+    File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Rewrites the output in place so that it matches the new phrases. Only samples covered by
+     * a phrase that was added or removed are rewritten.
+     *
+     * @return A record of the patched output, or empty if the output must be rendered again
+     *         from scratch, for example because its length changed.
+     */
+    Optional<RenderedRegion> patch(RegionBounds newBounds, List<PhraseRecord> newPhrases) {
+        if (!bounds.equals(newBounds) || !outputFile.canWrite()) {
+            return Optional.empty();
+        }
+        int numSamples = getNumSamples(phrases);
+        if (numSamples != getNumSamples(newPhrases)) {
+            return Optional.empty();
+        }
+
+        // Find the spans of output that changed.
+        Set<PhraseRecord> oldSet = new HashSet<>(phrases);
+        Set<PhraseRecord> newSet = new HashSet<>(newPhrases);
+        List<int[]> spans = new ArrayList<>();
+        for (PhraseRecord phrase : newPhrases) {
+            if (!oldSet.contains(phrase)) {
+                spans.add(new int[] {phrase.startSample, phrase.getEndSample()});
+            }
+        }
+        for (PhraseRecord phrase : phrases) {
+            if (!newSet.contains(phrase)) {
+                spans.add(new int[] {phrase.startSample, phrase.getEndSample()});
+            }
+        }
+        spans.sort((first, second) -> Integer.compare(first[0], second[0]));
+
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(outputFile);
+            AudioFormat format = fileFormat.getFormat();
+            if (fileFormat.getFrameLength() != numSamples
+                    || format.getChannels() != 1
+                    || format.getSampleSizeInBits() != 16) {
+                return Optional.empty(); // Not a render this class knows how to patch.
+            }
+            // Sample data is at the end of the file, after the header.
+            long dataOffset = outputFile.length() - numSamples * 2L;
+            try (RandomAccessFile output = new RandomAccessFile(outputFile, "rw")) {
+                int spanIndex = 0;
+                while (spanIndex < spans.size()) {
+                    // Merge overlapping spans so each sample is only written once.
+                    int start = spans.get(spanIndex)[0];
+                    int end = spans.get(spanIndex)[1];
+                    spanIndex++;
+                    while (spanIndex < spans.size() && spans.get(spanIndex)[0] <= end) {
+                        end = Math.max(end, spans.get(spanIndex)[1]);
+                        spanIndex++;
+                    }
+                    output.seek(dataOffset + start * 2L);
+                    output.write(mixSpan(newPhrases, start, Math.min(end, numSamples)));
+                }
+            }
+        } catch (IOException | UnsupportedAudioFileException e) {
+            errorLogger.logError(e);
+            return Optional.empty();
+        }
+        return Optional.of(new RenderedRegion(bounds, outputFile, newPhrases));
+    }
+
+    // Mixes every phrase that covers part of a span into 16-bit PCM for that span.
+    private static byte[] mixSpan(List<PhraseRecord> phrases, int start, int end) {
+        BuiltInWavtool mixer = new BuiltInWavtool();
+        mixer.startRender();
+        for (PhraseRecord phrase : phrases) {
+            if (phrase.startSample < end && phrase.getEndSample() > start) {
+                mixer.mixWav(phrase.file, phrase.startSample - start);
+            }
+        }
+        // Pad with silence if no phrase reaches the end of the span.
+        return Arrays.copyOf(mixer.toPcm(0, end - start), (end - start) * 2);
+    }
+
+    private static int getNumSamples(List<PhraseRecord> phrases) {
+        return phrases.stream().mapToInt(PhraseRecord::getEndSample).max().orElse(0);
+    }
+
+    /** A rendered phrase and its position in the output, in samples. */
+    static class PhraseRecord {
+        private final String key;
+        private final File file;
+        private final int startSample;
+        private final int numSamples;
+
+        private PhraseRecord(String key, File file, int startSample, int numSamples) {
+            this.key = key;
+            this.file = file;
+            this.startSample = startSample;
+            this.numSamples = numSamples;
+        }
+
+        /**
+         * Reads the length of a rendered phrase.
+         *
+         * @param key Cache key of the phrase, which covers everything that affects its output.
+         * @param positionMs Position of the phrase from the start of the output, in ms.
+         */
+        static Optional<PhraseRecord> create(String key, File file, double positionMs) {
+            if (!file.canRead()) {
+                return Optional.empty(); // Phrase had nothing to render.
+            }
+            try {
+                AudioFileFormat format = AudioSystem.getAudioFileFormat(file);
+                float sampleRate = format.getFormat().getSampleRate();
+                // Same rounding as BuiltInWavtool, which splices phrases together.
+                int startSample = Math.max(0, (int) Math.round(positionMs * sampleRate / 1000.0));
+                return Optional.of(
+                        new PhraseRecord(key, file, startSample, format.getFrameLength()));
+            } catch (IOException | UnsupportedAudioFileException e) {
+                errorLogger.logError(e);
+                return Optional.empty();
+            }
+        }
+
+        int getEndSample() {
+            return startSample + numSamples;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PhraseRecord)) {
+                return false;
+            }
+            PhraseRecord otherRecord = (PhraseRecord) other;
+            return key.equals(otherRecord.key)
+                    && startSample == otherRecord.startSample
+                    && numSamples == otherRecord.numSamples;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, startSample, numSamples);
+        }
+    }
+}
@@ -1,38 +1,119 @@
 package com.utsusynth.utsu.engine;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.data.LyricConfigData;
 import com.utsusynth.utsu.common.utils.PitchUtils;
-import com.utsusynth.utsu.files.AssetManager;
+import com.utsusynth.utsu.engine.ExternalProcessRunner.ProcessResult;
+import com.utsusynth.utsu.files.CacheManager;
 import com.utsusynth.utsu.files.FileNameFixer;
 import com.utsusynth.utsu.model.song.Note;
-import com.utsusynth.utsu.model.song.Song;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 import com.utsusynth.utsu.model.voicebank.LyricConfig;
 
 public class Resampler {
     private final ExternalProcessRunner runner;
     private final FileNameFixer fileNameFixer;
-    private final AssetManager assetManager;
+    private final CacheManager cacheManager;
 
     @Inject
     Resampler(
-            ExternalProcessRunner runner, FileNameFixer fileNameFixer, AssetManager assetManager) {
+            ExternalProcessRunner runner,
+            FileNameFixer fileNameFixer,
+            CacheManager cacheManager) {
         this.runner = runner;
         this.fileNameFixer = fileNameFixer;
-        this.assetManager = assetManager;
+        this.cacheManager = cacheManager;
     }
 
-    void resample(
+    /**
+     * Re-samples a note. If useCache is true, a previous render with identical resampler inputs
+     * is reused when available, and new renders are added to the persistent note cache.
+     *
+     * @param handle Render that will read the note, which keeps it in the cache until it ends.
+     * @return The file containing the re-sampled note.
+     */
+    File resample(
             File resamplerPath,
             Note note,
             double noteLength,
             LyricConfig config,
-            File outputFile,
             String pitchString,
-            Song song) {
-        String inputFilePath = fileNameFixer.getFixedName(config.getPathToFile().getAbsolutePath());
-        String outputFilePath = outputFile.getAbsolutePath();
+            SongSnapshot song,
+            boolean useCache,
+            RenderHandle handle) {
+        File inputFile = config.getPathToFile();
+        String inputFilePath = fileNameFixer.getFixedName(inputFile.getAbsolutePath());
+        List<String> noteArgs = getNoteArgs(note, noteLength, config, pitchString, song);
+
+        // Check for an identical note that was already rendered.
+        String cacheKey = "";
+        if (useCache) {
+            cacheKey = getCacheKey(resamplerPath, inputFile, inputFilePath, noteArgs);
+            handle.pinNoteCache(cacheKey);
+            Optional<File> cachedNote = cacheManager.getNoteCache(cacheKey);
+            if (cachedNote.isPresent()) {
+                return cachedNote.get();
+            }
+        }
+
+        // Call resampler.
+        File outputFile = cacheManager.createNoteCache();
+        List<String> args = new ArrayList<>();
+        args.add(resamplerPath.getAbsolutePath());
+        args.add(inputFilePath);
+        args.add(outputFile.getAbsolutePath());
+        args.addAll(noteArgs);
+        ProcessResult result = runner.runProcess(args.toArray(new String[0]));
+        if (!result.isSuccess()) {
+            // Resampler was cancelled or failed, so output may be incomplete.
+            if (outputFile.exists()) {
+                cacheManager.clearCache(outputFile);
+            }
+            return outputFile;
+        }
+        return useCache ? cacheManager.storeNoteCache(cacheKey, outputFile) : outputFile;
+    }
+
+    /**
+     * Gets the key that a call to resample with the same arguments would use for the note cache.
+     */
+    String getCacheKey(
+            File resamplerPath,
+            Note note,
+            double noteLength,
+            LyricConfig config,
+            String pitchString,
+            SongSnapshot song) {
+        File inputFile = config.getPathToFile();
+        return getCacheKey(
+                resamplerPath,
+                inputFile,
+                fileNameFixer.getFixedName(inputFile.getAbsolutePath()),
+                getNoteArgs(note, noteLength, config, pitchString, song));
+    }
+
+    private String getCacheKey(
+            File resamplerPath, File inputFile, String inputFilePath, List<String> noteArgs) {
+        List<String> keyParts = new ArrayList<>();
+        keyParts.add(resamplerPath.getAbsolutePath());
+        keyParts.add(Long.toString(resamplerPath.lastModified()));
+        keyParts.add(inputFilePath);
+        keyParts.add(Long.toString(inputFile.lastModified()));
+        keyParts.addAll(noteArgs);
+        return cacheManager.getNoteCacheKey(keyParts);
+    }
+
+    // Resampler arguments that come after the input and output files.
+    private static List<String> getNoteArgs(
+            Note note,
+            double noteLength,
+            LyricConfig config,
+            String pitchString,
+            SongSnapshot song) {
         String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
         String consonantVelocity = Double.toString(note.getVelocity());
         String flags = note.getNoteFlags().isEmpty() ? song.getFlags() : note.getNoteFlags();
@@ -44,12 +125,7 @@ public class Resampler {
         String intensity = Integer.toString(note.getIntensity());
         String modulation = Integer.toString(note.getModulation()); // TODO: Set this song-wide?
         String tempo = "T" + song.getTempo(); // TODO: Override with note tempo.
-
-        // Call resampler.
-        runner.runProcess(
-                resamplerPath.getAbsolutePath(),
-                inputFilePath,
-                outputFilePath,
+        return List.of(
                 pitch,
                 consonantVelocity,
                 flags.isEmpty() ? "?" : flags, // Uses placeholder value if there are no flags.
@@ -63,7 +139,6 @@ public class Resampler {
                 pitchString);
     }
 
-
     /**
      * Play a note based on Note and LyricConfigData, using the resampler
      * @param resamplerPath Path to the resampler
@@ -111,22 +186,4 @@ public class Resampler {
                 tempoString,
                 pitchString);
     }
-
-
-    void resampleSilence(File resamplerPath, File outputFile, double duration) {
-        String desiredLength = Double.toString(duration + 1);
-        runner.runProcess(
-                resamplerPath.getAbsolutePath(),
-                assetManager.getSilenceFile().getAbsolutePath(),
-                outputFile.getAbsolutePath(),
-                "C4",
-                "100",
-                "?",
-                "0",
-                desiredLength,
-                "0",
-                "0",
-                "100",
-                "0");
-    }
 }
@@ -0,0 +1,62 @@
+package com.utsusynth.utsu.engine;
+
+import com.google.inject.Inject;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.files.CacheManager;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton class that provides silent WAV files for external wavtools, so that rests don't
+ * need a resampler call. Each length of silence is only written to disk once.
+ */
+public class SilenceGenerator {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final float SAMPLE_RATE = 44100;
+
+    private final CacheManager cacheManager;
+    private final ConcurrentHashMap<Integer, File> silences; // Silent files by length in ms.
+
+    @Inject
+    public SilenceGenerator(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        silences = new ConcurrentHashMap<>();
+    }
+
+    /** Gets a silent WAV file that is at least as long as the given duration, in ms. */
+    File getSilence(double duration) {
+        // Add a millisecond of leeway, as the resampler did.
+        int lengthMs = (int) Math.ceil(Math.max(0, duration)) + 1;
+        File silence = silences.get(lengthMs);
+        if (silence != null && silence.exists()) {
+            return silence;
+        }
+        return silences.compute(lengthMs, (key, oldSilence) -> {
+            if (oldSilence != null && oldSilence.exists()) {
+                return oldSilence; // Written by another thread in the meantime.
+            }
+            return writeSilence(key);
+        });
+    }
+
+    private File writeSilence(int lengthMs) {
+        File silence = cacheManager.createSilenceCache();
+        int numSamples = (int) Math.ceil(lengthMs * SAMPLE_RATE / 1000.0);
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        byte[] zeros = new byte[numSamples * format.getFrameSize()];
+        try (AudioInputStream output =
+                new AudioInputStream(new ByteArrayInputStream(zeros), format, numSamples)) {
+            AudioSystem.write(output, AudioFileFormat.Type.WAVE, silence);
+        } catch (IOException e) {
+            errorLogger.logError(e);
+        }
+        return silence;
+    }
+}
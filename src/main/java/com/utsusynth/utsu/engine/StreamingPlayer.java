@@ -0,0 +1,190 @@
+package com.utsusynth.utsu.engine;
+
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.engine.Engine.PlaybackStatus;
+import javafx.util.Duration;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Plays rendered audio through a SourceDataLine while the rest of the song is still rendering.
+ * Audio is queued by the render thread and written to the line by a separate playback thread.
+ */
+class StreamingPlayer {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final double START_BUFFER_MS = 500; // Audio to queue before starting.
+    private static final byte[] END_OF_AUDIO = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> chunks;
+    private Runnable onPlaying;
+    private Runnable onStopped;
+    private SourceDataLine line;
+    private Thread playbackThread;
+    private long queuedBytes;
+    private volatile boolean paused;
+    private volatile boolean stopped;
+    private volatile Duration finalTime; // Set once playback ends.
+    private volatile boolean playedToEnd; // Whether all audio played before playback ended.
+
+    StreamingPlayer() {
+        onPlaying = () -> {};
+        onStopped = () -> {};
+        chunks = new LinkedBlockingQueue<>();
+        queuedBytes = 0;
+        paused = false;
+        stopped = false;
+        finalTime = null;
+        playedToEnd = false;
+    }
+
+    /** Sets a callback to run on the playback thread when audio starts playing. */
+    void setOnPlaying(Runnable onPlaying) {
+        this.onPlaying = onPlaying;
+    }
+
+    /** Sets a callback to run on the playback thread when audio ends or is stopped. */
+    void setOnStopped(Runnable onStopped) {
+        this.onStopped = onStopped;
+    }
+
+    /**
+     * Queues audio for playback, starting playback once enough audio is queued.
+     */
+    synchronized void write(byte[] pcm, AudioFormat format) {
+        if (stopped || pcm.length == 0) {
+            return;
+        }
+        if (line == null) {
+            try {
+                line = AudioSystem.getSourceDataLine(format);
+                line.open(format);
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                errorLogger.logError(e);
+                stopped = true;
+                return;
+            }
+        }
+        chunks.add(pcm);
+        queuedBytes += pcm.length;
+        AudioFormat lineFormat = line.getFormat();
+        double queuedMs = queuedBytes * 1000.0 / lineFormat.getFrameSize()
+                / lineFormat.getFrameRate();
+        if (playbackThread == null && queuedMs >= START_BUFFER_MS) {
+            startPlaybackThread();
+        }
+    }
+
+    /**
+     * Marks the end of the render. Playback finishes once all queued audio has played.
+     */
+    synchronized void finish() {
+        if (stopped || line == null) {
+            return; // Nothing was ever played.
+        }
+        chunks.add(END_OF_AUDIO);
+        if (playbackThread == null) {
+            startPlaybackThread();
+        }
+    }
+
+    /** Whether any audio has been queued for playback. */
+    synchronized boolean hasAudio() {
+        return line != null;
+    }
+
+    synchronized void pause() {
+        if (!stopped) {
+            paused = true; // Also keeps playback from starting if it hasn't yet.
+            if (line != null) {
+                line.stop();
+            }
+        }
+    }
+
+    synchronized void resume() {
+        if (!stopped && paused) {
+            paused = false;
+            if (line != null && playbackThread != null) {
+                line.start();
+            }
+        }
+    }
+
+    synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        chunks.clear();
+        if (playbackThread != null) {
+            playbackThread.interrupt();
+            if (line != null) {
+                line.stop();
+                line.flush(); // Unblocks the playback thread if it is writing.
+            }
+            return; // Playback thread closes the line and runs onStopped.
+        }
+        // Playback never started, so there's no thread to clean up after it.
+        if (line != null) {
+            finalTime = Duration.ZERO;
+            line.close();
+        }
+        onStopped.run();
+    }
+
+    PlaybackStatus getStatus() {
+        if (stopped || playbackThread == null || finalTime != null) {
+            return PlaybackStatus.STOPPED;
+        }
+        return paused ? PlaybackStatus.PAUSED : PlaybackStatus.PLAYING;
+    }
+
+    /** Whether playback ended because all of the audio was played, rather than being stopped. */
+    boolean playedToEnd() {
+        return playedToEnd;
+    }
+
+    /** How much audio has actually been played, according to the audio line. */
+    Duration getPlaybackTime() {
+        if (finalTime != null) {
+            return finalTime;
+        }
+        if (line == null) {
+            return Duration.ZERO;
+        }
+        return Duration.millis(line.getMicrosecondPosition() / 1000.0);
+    }
+
+    private void startPlaybackThread() {
+        playbackThread = new Thread(() -> {
+            synchronized (this) {
+                if (!paused) {
+                    line.start();
+                }
+            }
+            onPlaying.run();
+            try {
+                while (!stopped) {
+                    byte[] chunk = chunks.take();
+                    if (chunk == END_OF_AUDIO) {
+                        line.drain(); // Wait for the line to play everything.
+                        playedToEnd = !stopped;
+                        break;
+                    }
+                    line.write(chunk, 0, chunk.length);
+                }
+            } catch (InterruptedException e) {
+                // Playback was stopped.
+            }
+            finalTime = Duration.millis(line.getMicrosecondPosition() / 1000.0);
+            line.close();
+            onStopped.run();
+        });
+        playbackThread.setDaemon(true);
+        playbackThread.start();
+    }
+}
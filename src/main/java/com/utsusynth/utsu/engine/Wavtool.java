@@ -2,25 +2,48 @@ package com.utsusynth.utsu.engine;
 
 import java.io.File;
 import com.google.inject.Inject;
-import com.utsusynth.utsu.model.song.Song;
+import com.utsusynth.utsu.engine.ExternalProcessRunner.ProcessResult;
+import com.utsusynth.utsu.files.PreferencesManager;
+import com.utsusynth.utsu.files.PreferencesManager.WavtoolMode;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 import com.utsusynth.utsu.model.song.Note;
 
 public class Wavtool {
     private final ExternalProcessRunner runner;
+    private final BuiltInWavtool builtInWavtool;
+    private final SilenceGenerator silenceGenerator;
+    private final PreferencesManager preferencesManager;
     private double totalDelta = 0; // Total duration in ms, used to debug timing issues.
+    private WavtoolMode mode = WavtoolMode.EXTERNAL; // Set at the start of each render.
 
     @Inject
-    Wavtool(ExternalProcessRunner runner) {
+    Wavtool(
+            ExternalProcessRunner runner,
+            BuiltInWavtool builtInWavtool,
+            SilenceGenerator silenceGenerator,
+            PreferencesManager preferencesManager) {
         this.runner = runner;
+        this.builtInWavtool = builtInWavtool;
+        this.silenceGenerator = silenceGenerator;
+        this.preferencesManager = preferencesManager;
     }
 
     void startRender(double startDelta) {
         totalDelta = startDelta;
+        mode = preferencesManager.getWavtoolMode();
+        if (mode == WavtoolMode.BUILT_IN) {
+            builtInWavtool.startRender();
+        }
     }
 
-    void addNewNote(
+    /**
+     * Adds a note onto the end of the output file.
+     *
+     * @return Whether the note's input was found and the wavtool finished cleanly.
+     */
+    boolean addNewNote(
             File wavtoolPath,
-            Song song,
+            SongSnapshot song,
             Note note,
             double noteLength,
             double expectedDelta,
@@ -30,7 +53,7 @@ public class Wavtool {
             boolean triggerSynthesis) {
         String outputFilePath = outputFile.getAbsolutePath();
         String inputFilePath = inputFile.getAbsolutePath();
-        String[] envelope = note.getFullEnvelope();
+        double[] envelope = note.getRawFullEnvelope();
 
         double boundedOverlap = Math.max(0, Math.min(note.getFadeIn(), noteLength));
         // Ignore overlap if current note doesn't touch previous one.
@@ -51,33 +74,54 @@ public class Wavtool {
             }
         }
 
+        // A missing input means the resampler failed, so the output is missing a note.
+        boolean succeeded = inputFile.canRead();
+        if (mode == WavtoolMode.BUILT_IN) {
+            builtInWavtool.addNote(
+                    inputFile,
+                    note.getRealStartPoint(),
+                    noteLength,
+                    envelope,
+                    boundedOverlap);
+            if (triggerSynthesis) {
+                succeeded &= builtInWavtool.finishRender(outputFile);
+            }
+            totalDelta += noteLength - boundedOverlap;
+            return succeeded;
+        }
+
         // Call wavtool to add new note onto the end of the output file.
-        runner.runProcess(
+        ProcessResult result = runner.runProcess(
                 wavtoolPath.getAbsolutePath(),
                 outputFilePath,
                 inputFilePath,
                 Double.toString(note.getRealStartPoint()),
                 Double.toString(noteLength),
-                envelope[0], // p1
-                envelope[1], // p2
-                envelope[2], // p3
-                envelope[3], // v1
-                envelope[4], // v2
-                envelope[5], // v3
-                envelope[6], // v4
+                Double.toString(envelope[0]), // p1
+                Double.toString(envelope[1]), // p2
+                Double.toString(envelope[2]), // p3
+                Double.toString(envelope[3]), // v1
+                Double.toString(envelope[4]), // v2
+                Double.toString(envelope[5]), // v3
+                Double.toString(envelope[6]), // v4
                 Double.toString(boundedOverlap), // overlap
-                envelope[8], // p4
-                envelope[9], // p5
-                envelope[10], // v5
+                Double.toString(envelope[8]), // p4
+                Double.toString(envelope[9]), // p5
+                Double.toString(envelope[10]), // v5
                 triggerSynthesis ? "LAST_NOTE" : ""); // Triggers final song processing.
         totalDelta += noteLength - boundedOverlap;
+        return succeeded && result.isSuccess();
     }
 
-    void addSilence(
+    /**
+     * Adds silence onto the end of the output file.
+     *
+     * @return Whether the silence was added.
+     */
+    boolean addSilence(
             File wavtoolPath,
             double duration,
             double expectedDelta,
-            File inputFile,
             File outputFile,
             boolean triggerSynthesis) {
         // Check that current length matches expected length and correct any discrepancies.
@@ -86,12 +130,22 @@ public class Wavtool {
                 duration += timingCorrection;
                 System.out.println("Corrected timing by " + timingCorrection + " ms.");
         }
+        if (mode == WavtoolMode.BUILT_IN) {
+            builtInWavtool.addSilence(duration);
+            boolean succeeded = true;
+            if (triggerSynthesis) {
+                succeeded = builtInWavtool.finishRender(outputFile);
+            }
+            totalDelta += duration;
+            return succeeded;
+        }
+        File inputFile = silenceGenerator.getSilence(duration);
         String startPoint = "0.0";
         String noteLength = Double.toString(duration); // Tempo already applied.
         String[] envelope = new String[] {"0", "0", "0", "0", "0", "0", "0", "0", "0", "0", "0"};
 
         // Call wavtool to add new note onto the end of the output file.
-        runner.runProcess(
+        ProcessResult result = runner.runProcess(
                 wavtoolPath.getAbsolutePath(),
                 outputFile.getAbsolutePath(),
                 inputFile.getAbsolutePath(),
@@ -110,5 +164,6 @@ public class Wavtool {
                 envelope[10], // v5
                 triggerSynthesis ? "LAST_NOTE" : ""); // Triggers final song processing.
         totalDelta += duration;
+        return result.isSuccess();
     }
 }
@@ -1,19 +1,44 @@
 package com.utsusynth.utsu.files;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.UtsuModule.SettingsPath;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 public class CacheManager {
+    private static final long MAX_NOTE_CACHE_BYTES = 1024L * 1024L * 1024L; // 1 GB.
+
     private final File cachePath;
+    private final File noteCachePath; // Rendered notes, kept across restarts.
+    private final File voicebankIndexPath; // Parsed voicebanks, kept across restarts.
+    // Persistent note cache entries and their sizes, least recently used first.
+    private final LinkedHashMap<String, Long> noteCacheEntries;
+    private final Map<String, Integer> pinnedNotes; // Entries in use, by number of users.
+    private long noteCacheBytes;
 
     @Inject
     public CacheManager(@SettingsPath File settingsPath) {
         cachePath = new File(settingsPath, "cache");
+        noteCachePath = new File(cachePath, "notes");
+        voicebankIndexPath = new File(cachePath, "voicebanks");
+        noteCacheEntries = new LinkedHashMap<>(16, 0.75f, true);
+        pinnedNotes = new HashMap<>();
+        noteCacheBytes = 0;
     }
 
     /**
@@ -25,9 +50,141 @@ public class CacheManager {
             return false;
         }
         clearAllCacheValues();
+        if (!noteCachePath.exists() && !noteCachePath.mkdirs()) {
+            System.out.println("Error: Failed to create note cache path.");
+            return false;
+        }
+        loadNoteCacheEntries();
+        if (!voicebankIndexPath.exists() && !voicebankIndexPath.mkdirs()) {
+            System.out.println("Error: Failed to create voicebank index path.");
+            return false;
+        }
         return true;
     }
 
+    /**
+     * Gets the location of the persistent index for a voicebank, which may not exist yet.
+     */
+    public File getVoicebankIndexFile(File pathToVoicebank) {
+        String key = Hashing.sha256()
+                .hashString(pathToVoicebank.getAbsolutePath(), StandardCharsets.UTF_8)
+                .toString();
+        return new File(voicebankIndexPath, key + ".bin");
+    }
+
+    /**
+     * Computes a persistent note cache key from everything that affects the resampler's output.
+     */
+    public String getNoteCacheKey(List<String> resamplerInputs) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String input : resamplerInputs) {
+            hasher.putString(input, StandardCharsets.UTF_8);
+            hasher.putByte((byte) 0); // Separator so adjacent inputs can't run together.
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Finds a previously rendered note with the given key, if one is still in the cache.
+     */
+    public synchronized Optional<File> getNoteCache(String key) {
+        if (!noteCacheEntries.containsKey(key)) {
+            return Optional.empty();
+        }
+        File noteCache = getNoteCacheFile(key);
+        if (!noteCache.exists()) {
+            noteCacheBytes -= noteCacheEntries.remove(key);
+            return Optional.empty();
+        }
+        // Record access time so least recently used notes are evicted first after restart.
+        noteCache.setLastModified(System.currentTimeMillis());
+        return Optional.of(noteCache);
+    }
+
+    /**
+     * Moves a freshly rendered note into the persistent cache, evicting old notes if necessary.
+     *
+     * @return The new location of the rendered note.
+     */
+    public synchronized File storeNoteCache(String key, File renderedNote) {
+        File noteCache = getNoteCacheFile(key);
+        if (!renderedNote.exists()) {
+            return renderedNote; // Nothing was rendered, so nothing to cache.
+        }
+        try {
+            Files.move(
+                    renderedNote.toPath(),
+                    noteCache.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Warning: Failed to store note in cache.");
+            return renderedNote;
+        }
+        Long oldSize = noteCacheEntries.put(key, noteCache.length());
+        noteCacheBytes += noteCache.length() - (oldSize == null ? 0 : oldSize);
+        evictNoteCache(key);
+        return noteCache;
+    }
+
+    /**
+     * Keeps a note cache entry from being evicted until it is unpinned, even if it isn't in the
+     * cache yet. Should be called before looking up or storing an entry that will be read later.
+     */
+    public synchronized void pinNoteCache(String key) {
+        pinnedNotes.merge(key, 1, Integer::sum);
+    }
+
+    /** Releases an entry pinned by pinNoteCache. */
+    public synchronized void unpinNoteCache(String key) {
+        Integer numPins = pinnedNotes.get(key);
+        if (numPins == null) {
+            return;
+        }
+        if (numPins > 1) {
+            pinnedNotes.put(key, numPins - 1);
+            return;
+        }
+        pinnedNotes.remove(key);
+        evictNoteCache(""); // Entries skipped while pinned may need to go now.
+    }
+
+    private File getNoteCacheFile(String key) {
+        return new File(noteCachePath, key + ".wav");
+    }
+
+    private synchronized void loadNoteCacheEntries() {
+        noteCacheEntries.clear();
+        noteCacheBytes = 0;
+        File[] noteCaches = noteCachePath.listFiles((dir, name) -> name.endsWith(".wav"));
+        if (noteCaches == null) {
+            return;
+        }
+        Arrays.sort(noteCaches, Comparator.comparingLong(File::lastModified));
+        for (File noteCache : noteCaches) {
+            String name = noteCache.getName();
+            noteCacheEntries.put(name.substring(0, name.length() - 4), noteCache.length());
+            noteCacheBytes += noteCache.length();
+        }
+        evictNoteCache("");
+    }
+
+    /**
+     * Removes least recently used notes until the cache fits, never removing keepKey or notes
+     * that are pinned by a render.
+     */
+    private void evictNoteCache(String keepKey) {
+        Iterator<Map.Entry<String, Long>> entries = noteCacheEntries.entrySet().iterator();
+        while (noteCacheBytes > MAX_NOTE_CACHE_BYTES && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().equals(keepKey) || pinnedNotes.containsKey(entry.getKey())) {
+                continue;
+            }
+            clearCache(getNoteCacheFile(entry.getKey()));
+            noteCacheBytes -= entry.getValue();
+            entries.remove();
+        }
+    }
+
     public File createRenderedCache() {
         File renderedCache = new File(cachePath, UUID.randomUUID() + "_rendered.wav");
         renderedCache.deleteOnExit();
@@ -40,6 +197,12 @@ public class CacheManager {
         return noteCache;
     }
 
+    public File createPhraseCache() {
+        File phraseCache = new File(cachePath, UUID.randomUUID() + "_phrase.wav");
+        phraseCache.deleteOnExit();
+        return phraseCache;
+    }
+
     public File createSilenceCache() {
         File silenceCache = new File(cachePath, UUID.randomUUID() + "_silence.wav");
         silenceCache.deleteOnExit();
@@ -70,17 +233,9 @@ public class CacheManager {
         }
     }
 
-    public void clearSilences() {
-        File[] silences = cachePath.listFiles((dir, name) -> name.endsWith("silence.wav"));
-        if (silences != null) {
-            for (File silence : silences) {
-                clearCache(silence);
-            }
-        }
-    }
-
+    /** Clears temporary cache files. Does not touch the persistent note cache. */
     public void clearAllCacheValues() {
-        File[] files = cachePath.listFiles();
+        File[] files = cachePath.listFiles(File::isFile);
         if (files != null) {
             for (File file : files) {
                 clearCache(file);
@@ -208,6 +208,44 @@ public class PreferencesManager {
         preferences.put("wavtool", wavtool.getAbsolutePath());
     }
 
+    public enum WavtoolMode {
+        EXTERNAL, BUILT_IN
+    }
+
+    public WavtoolMode getWavtoolMode() {
+        String wavtoolModeName = preferences.containsKey("wavtoolMode")
+                ? preferences.get("wavtoolMode") : defaultPreferences.get("wavtoolMode");
+        try {
+            return WavtoolMode.valueOf(wavtoolModeName);
+        } catch (IllegalArgumentException e) {
+            errorLogger.logError(e);
+            return WavtoolMode.valueOf(defaultPreferences.get("wavtoolMode"));
+        }
+    }
+
+    public void setWavtoolMode(WavtoolMode wavtoolMode) {
+        preferences.put("wavtoolMode", wavtoolMode.name());
+    }
+
+    public enum StreamingMode {
+        DISABLED, ENABLED
+    }
+
+    public StreamingMode getStreaming() {
+        String streamingName = preferences.containsKey("streaming")
+                ? preferences.get("streaming") : defaultPreferences.get("streaming");
+        try {
+            return StreamingMode.valueOf(streamingName);
+        } catch (IllegalArgumentException e) {
+            errorLogger.logError(e);
+            return StreamingMode.valueOf(defaultPreferences.get("streaming"));
+        }
+    }
+
+    public void setStreaming(StreamingMode streamingMode) {
+        preferences.put("streaming", streamingMode.name());
+    }
+
     public File getVoicebank() {
         File voicebank = preferences.containsKey("voicebank")
                 ? new File(preferences.get("voicebank"))
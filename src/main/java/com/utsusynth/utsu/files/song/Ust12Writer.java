@@ -7,7 +7,7 @@ import com.utsusynth.utsu.common.RegionBounds;
 import com.utsusynth.utsu.common.utils.RoundUtils;
 import com.utsusynth.utsu.model.song.Note;
 import com.utsusynth.utsu.model.song.NoteIterator;
-import com.utsusynth.utsu.model.song.Song;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 import com.utsusynth.utsu.model.voicebank.LyricConfig;
 
 /**
@@ -20,7 +20,7 @@ public class Ust12Writer {
      * @return An array containing the header of the plugin PREV note and the header of the first
      *         note after the plugin NEXT note.
      */
-    public String[] writeToPlugin(Song song, RegionBounds bounds, PrintStream ps) {
+    public String[] writeToPlugin(SongSnapshot song, RegionBounds bounds, PrintStream ps) {
         String[] headers = new String[] {getNoteLabel(0), getNoteLabel(9999)};
 
         ps.println("[#VERSION]");
@@ -103,7 +103,7 @@ public class Ust12Writer {
         return headers;
     }
 
-    public void writeSong(Song song, PrintStream ps) {
+    public void writeSong(SongSnapshot song, PrintStream ps) {
         ps.println("[#VERSION]");
         ps.println("UST Version1.2");
         writeSettings(song, ps);
@@ -126,7 +126,7 @@ public class Ust12Writer {
         ps.println("[#TRACKEND]");
     }
 
-    private void writeSettings(Song song, PrintStream ps) {
+    private void writeSettings(SongSnapshot song, PrintStream ps) {
         ps.println("[#SETTING]");
         ps.println("Tempo=" + RoundUtils.roundDecimal(song.getTempo(), "#.##"));
         ps.println("ProjectName=" + song.getProjectName());
@@ -207,11 +207,10 @@ public class Ust12Writer {
 
         // Vibrato.
         ps.print("VBR=");
-        String[] vibrato = note.getVibrato();
         for (int i = 0; i < 9; i++) {
-            ps.print(vibrato[i] + ",");
+            ps.print(note.getVibrato(i) + ",");
         }
-        ps.println(vibrato[9]);
+        ps.println(note.getVibrato(9));
     }
 
     private String getNoteLabel(int index) {
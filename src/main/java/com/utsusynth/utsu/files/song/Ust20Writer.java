@@ -5,13 +5,13 @@ import java.util.Iterator;
 import com.google.common.collect.ImmutableList;
 import com.utsusynth.utsu.common.utils.RoundUtils;
 import com.utsusynth.utsu.model.song.Note;
-import com.utsusynth.utsu.model.song.Song;
+import com.utsusynth.utsu.model.song.SongSnapshot;
 
 /**
  * Writes a song to a Unicode UST 2.0 file.
  */
 public class Ust20Writer {
-    public void writeSong(Song song, PrintStream ps, String charset) {
+    public void writeSong(SongSnapshot song, PrintStream ps, String charset) {
         ps.println("[#VERSION]");
         ps.println("UST Version2.0");
         ps.println("Charset=" + charset);
@@ -88,11 +88,10 @@ public class Ust20Writer {
 
             // Vibrato.
             ps.print("VBR=");
-            String[] vibrato = note.getVibrato();
             for (int i = 0; i < 9; i++) {
-                ps.print(vibrato[i] + ",");
+                ps.print(note.getVibrato(i) + ",");
             }
-            ps.println(vibrato[9]);
+            ps.println(note.getVibrato(9));
             index++;
         }
         ps.println("[#TRACKEND]");
@@ -0,0 +1,218 @@
+package com.utsusynth.utsu.files.voicebank;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Binary index of the lyrics parsed from each oto file in a voicebank. An oto file's lyrics are
+ * reused as long as the file and the folders its frq files were looked up in haven't changed, so
+ * reopening a voicebank only parses oto files that were edited since the last time.
+ */
+class OtoIndex {
+    private static final int FORMAT_VERSION = 1; // Increment whenever the format changes.
+
+    private final File pathToVoicebank;
+    private final Map<File, OtoFile> otoFiles; // Parsed oto files by location.
+
+    OtoIndex(File pathToVoicebank) {
+        this.pathToVoicebank = pathToVoicebank;
+        this.otoFiles = new HashMap<>();
+    }
+
+    /** Finds the lyrics of an oto file if they were indexed and the file hasn't changed. */
+    Optional<OtoFile> getIfCurrent(File otoFile) {
+        OtoFile indexed = otoFiles.get(otoFile.getAbsoluteFile());
+        if (indexed == null || !indexed.isCurrent(otoFile)) {
+            return Optional.empty();
+        }
+        return Optional.of(indexed);
+    }
+
+    void put(File otoFile, OtoFile parsed) {
+        otoFiles.put(otoFile.getAbsoluteFile(), parsed);
+    }
+
+    /** Whether this index holds exactly the same oto files as another. */
+    boolean matches(OtoIndex other) {
+        if (!otoFiles.keySet().equals(other.otoFiles.keySet())) {
+            return false;
+        }
+        for (Map.Entry<File, OtoFile> entry : otoFiles.entrySet()) {
+            if (entry.getValue() != other.otoFiles.get(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Reads an index from disk, or returns an empty index if it's missing or out of date. */
+    static OtoIndex read(File indexFile, File pathToVoicebank) {
+        OtoIndex index = new OtoIndex(pathToVoicebank);
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(indexFile.toPath())))) {
+            if (in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(pathToVoicebank.getAbsolutePath())) {
+                return index;
+            }
+            int numOtoFiles = in.readInt();
+            for (int i = 0; i < numOtoFiles; i++) {
+                File otoFile = new File(in.readUTF());
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                int numFrqDirs = in.readInt();
+                ImmutableMap.Builder<File, Long> frqDirs = ImmutableMap.builder();
+                for (int j = 0; j < numFrqDirs; j++) {
+                    frqDirs.put(new File(in.readUTF()), in.readLong());
+                }
+                int numEntries = in.readInt();
+                ImmutableList.Builder<OtoEntry> entries = ImmutableList.builder();
+                for (int j = 0; j < numEntries; j++) {
+                    String trueLyric = in.readUTF();
+                    String fileName = in.readUTF();
+                    double[] configValues = new double[5];
+                    for (int k = 0; k < 5; k++) {
+                        configValues[k] = in.readDouble();
+                    }
+                    LyricConfig config =
+                            new LyricConfig(pathToVoicebank, trueLyric, fileName, configValues);
+                    entries.add(new OtoEntry(config, in.readBoolean()));
+                }
+                index.put(
+                        otoFile,
+                        new OtoFile(lastModified, size, frqDirs.build(), entries.build()));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Warning: Voicebank index is unreadable and will be rebuilt.");
+            return new OtoIndex(pathToVoicebank);
+        }
+        return index;
+    }
+
+    /**
+     * Writes this index to disk, replacing the old index only once the new one is complete. Each
+     * write uses its own temporary file, so loads of the same voicebank can write at once.
+     */
+    void write(File indexFile) {
+        File tempFile;
+        try {
+            tempFile = Files.createTempFile(
+                    indexFile.getAbsoluteFile().getParentFile().toPath(),
+                    indexFile.getName(),
+                    ".tmp").toFile();
+        } catch (IOException e) {
+            System.out.println("Warning: Failed to write voicebank index.");
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(pathToVoicebank.getAbsolutePath());
+            out.writeInt(otoFiles.size());
+            for (Map.Entry<File, OtoFile> otoEntry : otoFiles.entrySet()) {
+                OtoFile otoFile = otoEntry.getValue();
+                out.writeUTF(otoEntry.getKey().getAbsolutePath());
+                out.writeLong(otoFile.lastModified);
+                out.writeLong(otoFile.size);
+                out.writeInt(otoFile.frqDirs.size());
+                for (Map.Entry<File, Long> frqDir : otoFile.frqDirs.entrySet()) {
+                    out.writeUTF(frqDir.getKey().getAbsolutePath());
+                    out.writeLong(frqDir.getValue());
+                }
+                out.writeInt(otoFile.entries.size());
+                for (OtoEntry entry : otoFile.entries) {
+                    LyricConfig config = entry.getConfig();
+                    out.writeUTF(config.getTrueLyric());
+                    out.writeUTF(config.getFilename());
+                    out.writeDouble(config.getOffset());
+                    out.writeDouble(config.getConsonant());
+                    out.writeDouble(config.getCutoff());
+                    out.writeDouble(config.getPreutterance());
+                    out.writeDouble(config.getOverlap());
+                    out.writeBoolean(entry.hasFrq());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: Failed to write voicebank index.");
+            tempFile.delete();
+            return;
+        }
+        try {
+            Files.move(
+                    tempFile.toPath(),
+                    indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Warning: Failed to replace voicebank index.");
+            tempFile.delete();
+        }
+    }
+
+    /** Lyrics parsed from one oto file, along with what they depend on. */
+    static class OtoFile {
+        private final long lastModified;
+        private final long size;
+        private final Map<File, Long> frqDirs; // Folders searched for frq files, by mtime.
+        private final List<OtoEntry> entries;
+
+        OtoFile(long lastModified, long size, Map<File, Long> frqDirs, List<OtoEntry> entries) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.frqDirs = frqDirs;
+            this.entries = entries;
+        }
+
+        List<OtoEntry> getEntries() {
+            return entries;
+        }
+
+        private boolean isCurrent(File otoFile) {
+            if (otoFile.lastModified() != lastModified || otoFile.length() != size) {
+                return false;
+            }
+            // A folder's mtime changes when frq files are added to or removed from it.
+            for (Map.Entry<File, Long> frqDir : frqDirs.entrySet()) {
+                if (frqDir.getKey().lastModified() != frqDir.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** A lyric parsed from an oto file, waiting to be added to a voicebank. */
+    static class OtoEntry {
+        private final LyricConfig config;
+        private final boolean hasFrq;
+
+        OtoEntry(LyricConfig config, boolean hasFrq) {
+            this.config = config;
+            this.hasFrq = hasFrq;
+        }
+
+        LyricConfig getConfig() {
+            return config;
+        }
+
+        boolean hasFrq() {
+            return hasFrq;
+        }
+    }
+}
@@ -10,14 +10,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import com.google.inject.Inject;
 import com.utsusynth.utsu.files.AssetManager;
+import com.utsusynth.utsu.files.CacheManager;
 import com.utsusynth.utsu.files.PreferencesManager;
 import org.apache.commons.io.FileUtils;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Provider;
 import com.utsusynth.utsu.common.exception.ErrorLogger;
@@ -36,15 +46,18 @@ public class VoicebankReader {
             Pattern.compile("([a-gA-G]#?[1-7])\\t\\S*\\t(\\S.*)");
 
     private final AssetManager assetManager;
+    private final CacheManager cacheManager;
     private final PreferencesManager preferencesManager;
     private final Provider<Voicebank> voicebankProvider;
 
     @Inject
     public VoicebankReader(
             AssetManager assetManager,
+            CacheManager cacheManager,
             PreferencesManager preferencesManager,
             Provider<Voicebank> voicebankProvider) {
         this.assetManager = assetManager;
+        this.cacheManager = cacheManager;
         this.preferencesManager = preferencesManager;
         this.voicebankProvider = voicebankProvider;
     }
@@ -93,7 +106,8 @@ public class VoicebankReader {
         File readmeFile = pathToVoicebank.toPath().resolve("readme.txt").toFile();
         builder.setDescription(readConfigFile(readmeFile));
 
-        // Parse all oto_ini.txt and oto.ini files in arbitrary order.
+        // Find all oto_ini.txt and oto.ini files in arbitrary order.
+        List<Path> otoFiles = new ArrayList<>();
         try {
             Files.walkFileTree(
                     pathToVoicebank.toPath(),
@@ -104,8 +118,7 @@ public class VoicebankReader {
                         public FileVisitResult visitFile(Path path, BasicFileAttributes attr) {
                             for (String otoName : ImmutableSet.of("oto.ini", "oto_ini.txt")) {
                                 if (path.endsWith(otoName)) {
-                                    Path pathToFile = path.toFile().getParentFile().toPath();
-                                    parseOtoIni(pathToVoicebank, pathToFile, otoName, builder);
+                                    otoFiles.add(path);
                                     break;
                                 }
                             }
@@ -117,6 +130,27 @@ public class VoicebankReader {
             errorLogger.logError(e);
         }
 
+        // Parse oto files that changed since they were last indexed, in parallel. Lyrics are
+        // added in the order the files were found so duplicate aliases resolve the same way.
+        File indexFile = cacheManager.getVoicebankIndexFile(pathToVoicebank);
+        OtoIndex oldIndex = OtoIndex.read(indexFile, pathToVoicebank);
+        Map<File, FrqListing> frqListings = new ConcurrentHashMap<>();
+        List<OtoIndex.OtoFile> parsedOtoFiles = otoFiles.parallelStream()
+                .map(otoFile -> oldIndex.getIfCurrent(otoFile.toFile())
+                        .orElseGet(() -> parseOtoIni(pathToVoicebank, otoFile, frqListings)))
+                .collect(Collectors.toList());
+        OtoIndex newIndex = new OtoIndex(pathToVoicebank);
+        for (int i = 0; i < otoFiles.size(); i++) {
+            OtoIndex.OtoFile parsed = parsedOtoFiles.get(i);
+            newIndex.put(otoFiles.get(i).toFile(), parsed);
+            for (OtoIndex.OtoEntry entry : parsed.getEntries()) {
+                builder.addLyric(entry.getConfig(), entry.hasFrq());
+            }
+        }
+        if (!newIndex.matches(oldIndex)) {
+            newIndex.write(indexFile);
+        }
+
         // Parse pitch map in arbitrary order, if present.
         for (String pitchMapName : ImmutableSet.of("prefixmap", "prefix.map")) {
             parsePitchMap(pathToVoicebank.toPath().resolve(pitchMapName).toFile(), builder);
@@ -128,15 +162,20 @@ public class VoicebankReader {
         return builder.build();
     }
 
-    private void parseOtoIni(
-            File pathToVoicebank,
-            Path pathToOtoFile,
-            String otoFile,
-            Voicebank.Builder builder) {
-        String otoData = readConfigFile(pathToOtoFile.resolve(otoFile).toFile());
+    private OtoIndex.OtoFile parseOtoIni(
+            File pathToVoicebank, Path otoFile, Map<File, FrqListing> frqListings) {
+        // Read file stats first, so any change made while parsing will be noticed next time.
+        long lastModified = otoFile.toFile().lastModified();
+        long size = otoFile.toFile().length();
+        Map<File, Long> frqDirs = new HashMap<>();
+        ImmutableList.Builder<OtoIndex.OtoEntry> entries = ImmutableList.builder();
+        Path pathToOtoFile = otoFile.getParent();
+        String otoData = readConfigFile(otoFile.toFile());
+        Matcher matcher = LYRIC_PATTERN.matcher("");
+        Matcher configMatcher = LYRIC_CONFIG_PATTERN.matcher("");
         for (String rawLine : otoData.split("\n")) {
             String line = rawLine.trim();
-            Matcher matcher = LYRIC_PATTERN.matcher(line);
+            matcher.reset(line);
             if (matcher.find()) {
                 String fileName = matcher.group(1); // Assuming this is a .wav file
                 String lyricName = matcher.group(2);
@@ -144,7 +183,7 @@ public class VoicebankReader {
                     // If no alias provided, use the file name as an adhoc alias.
                     lyricName = fileName.substring(0, fileName.length() - 4);
                 }
-                Matcher configMatcher = LYRIC_CONFIG_PATTERN.matcher(line.substring(matcher.end()));
+                configMatcher.reset(line.substring(matcher.end()));
                 if (!configMatcher.find() || configMatcher.groupCount() != 5 || fileName == null) {
                     System.out.println("Received unexpected results while parsing oto.ini");
                     continue;
@@ -154,18 +193,23 @@ public class VoicebankReader {
                     configValues[i] = configMatcher.group(i + 1).equals("")
                             ? "0" : configMatcher.group(i + 1);
                 }
-                // Search for a frq file.
+                // Search for a frq file, listing each folder only once.
                 String frqName = fileName.substring(0, fileName.length() - 4) + "_wav.frq";
                 File frqFile = pathToOtoFile.resolve(frqName).toFile();
-                builder.addLyric(
+                FrqListing frqListing =
+                        frqListings.computeIfAbsent(frqFile.getParentFile(), FrqListing::new);
+                frqDirs.put(frqFile.getParentFile(), frqListing.lastModified);
+                boolean hasFrq = frqListing.hasFile(frqFile);
+                entries.add(new OtoIndex.OtoEntry(
                         new LyricConfig(
                                 pathToVoicebank,
                                 pathToOtoFile.resolve(fileName).toFile(),
                                 lyricName,
                                 configValues),
-                        frqFile.canRead());
+                        hasFrq));
             }
         }
+        return new OtoIndex.OtoFile(lastModified, size, frqDirs, entries.build());
     }
 
     private void parsePitchMap(File pitchMapFile, Voicebank.Builder builder) {
@@ -202,16 +246,15 @@ public class VoicebankReader {
         }
         try {
             byte[] bytes = FileUtils.readFileToByteArray(file);
-            String charset = "UTF-8";
             CharsetDecoder utf8Decoder =
                     StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
                             .onUnmappableCharacter(CodingErrorAction.REPORT);
             try {
-                utf8Decoder.decode(ByteBuffer.wrap(bytes));
+                // Files that decode as UTF-8 don't need to be decoded again.
+                return utf8Decoder.decode(ByteBuffer.wrap(bytes)).toString();
             } catch (CharacterCodingException e) {
-                charset = "SJIS";
+                return new String(bytes, "SJIS");
             }
-            return new String(bytes, charset);
         } catch (IOException e) {
             // TODO Handle this.
             errorLogger.logError(e);
@@ -219,6 +262,35 @@ public class VoicebankReader {
         return "";
     }
 
+    /** Names of the files in a folder, used to check for frq files. */
+    private static class FrqListing {
+        private final long lastModified;
+        private final Set<String> fileNames;
+        private final Set<String> lowerCaseNames;
+
+        private FrqListing(File directory) {
+            // Read mtime first, so a change made while listing will be noticed next time.
+            this.lastModified = directory.lastModified();
+            String[] names = directory.list();
+            this.fileNames = names == null ? ImmutableSet.of() : ImmutableSet.copyOf(names);
+            ImmutableSet.Builder<String> lowerCaseNames = ImmutableSet.builder();
+            for (String name : fileNames) {
+                lowerCaseNames.add(name.toLowerCase(Locale.ROOT));
+            }
+            this.lowerCaseNames = lowerCaseNames.build();
+        }
+
+        /** Whether a file in this folder can be read, matching names the way the OS does. */
+        private boolean hasFile(File file) {
+            if (fileNames.contains(file.getName())) {
+                return true;
+            }
+            // Names that only differ by case resolve to the same file on Windows and macOS.
+            return lowerCaseNames.contains(file.getName().toLowerCase(Locale.ROOT))
+                    && file.canRead();
+        }
+    }
+
     /**
      * Parses a file path, and replaces the strings "${DEFAULT}" and "${HOME}" with their
      * corresponding directories.
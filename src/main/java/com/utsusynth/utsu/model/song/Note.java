@@ -42,6 +42,7 @@ public class Note {
     private double realDuration; // What real duration would be with default tempo.
     private double realStartPoint;
     private String trueLyric; // Note's lyric after processing and formatting.
+    private String standardizedConfig; // Lyric config values used when last standardized.
     private Optional<File> cacheFile; // Result of applying resampler to this note.
 
     public Note() {
@@ -72,9 +73,44 @@ public class Note {
         this.realDuration = -1; // Should be ignored if not explicitly set.
         this.realStartPoint = 0;
         this.trueLyric = ""; // Defaults to "" if no lyric is found.
+        this.standardizedConfig = "";
         this.cacheFile = Optional.empty();
     }
 
+    /**
+     * Copies another note. Strings and pitchbend lists are immutable, so they are shared with the
+     * original rather than copied.
+     */
+    Note(Note other) {
+        this.delta = other.delta;
+        this.duration = other.duration;
+        this.length = other.length;
+        this.lyric = other.lyric;
+        this.noteNum = other.noteNum;
+        this.preutter = other.preutter;
+        this.overlap = other.overlap;
+        this.velocity = other.velocity;
+        this.startPoint = other.startPoint;
+        this.intensity = other.intensity;
+        this.modulation = other.modulation;
+        this.noteFlags = other.noteFlags;
+        this.pbs = other.pbs;
+        this.pbw = other.pbw;
+        this.pby = other.pby;
+        this.pbm = other.pbm;
+        this.envelopeWidth = other.envelopeWidth.clone();
+        this.envelopeHeight = other.envelopeHeight.clone();
+        this.envelopeOverlap = other.envelopeOverlap;
+        this.vibrato = other.vibrato.clone();
+
+        this.realPreutter = other.realPreutter;
+        this.realDuration = other.realDuration;
+        this.realStartPoint = other.realStartPoint;
+        this.trueLyric = other.trueLyric;
+        this.standardizedConfig = other.standardizedConfig;
+        this.cacheFile = other.cacheFile;
+    }
+
     public void setDelta(int delta) {
         this.delta = delta;
     }
@@ -321,6 +357,20 @@ public class Note {
             envelopeHeight[4] = safeParseDouble(envelopeValues[10], envelopeHeight[4]); // v5
         }
 
+        fixCrossfadedEnvelope();
+    }
+
+    /**
+     * Shrinks the envelope's p2, p3, and p5 widths, leaving fade in and fade out alone.
+     */
+    void shrinkEnvelope(double shrinkFactor) {
+        envelopeWidth[1] *= shrinkFactor; // p2
+        envelopeWidth[2] *= shrinkFactor; // p3
+        envelopeWidth[4] *= shrinkFactor; // p5
+        fixCrossfadedEnvelope();
+    }
+
+    private void fixCrossfadedEnvelope() {
         // Try to catch an envelope that's V2/V3 crossfaded.
         if (envelopeHeight[0] < 1 && envelopeHeight[3] < 1) {
             // TODO: Ask the user if the weird envelope values were intentional.
@@ -334,22 +384,6 @@ public class Note {
         }
     }
 
-    public String[] getFullEnvelope() {
-        String[] envelope = new String[11];
-        envelope[0] = Double.toString(envelopeWidth[0]); // p1
-        envelope[1] = Double.toString(envelopeWidth[1]); // p2
-        envelope[2] = Double.toString(envelopeWidth[2]); // p3
-        envelope[3] = Double.toString(envelopeHeight[0]); // v1
-        envelope[4] = Double.toString(envelopeHeight[1]); // v2
-        envelope[5] = Double.toString(envelopeHeight[2]); // v3
-        envelope[6] = Double.toString(envelopeHeight[3]); // v4
-        envelope[7] = Double.toString(envelopeOverlap); // overlap
-        envelope[8] = Double.toString(envelopeWidth[3]); // p4
-        envelope[9] = Double.toString(envelopeWidth[4]); // p5
-        envelope[10] = Double.toString(envelopeHeight[4]); // v5
-        return envelope;
-    }
-
     public double[] getRawFullEnvelope() {
         double[] envelope = new double[11];
         envelope[0] = envelopeWidth[0]; // p1
@@ -372,6 +406,11 @@ public class Note {
         envelopeHeight = envelopeData.getHeights();
     }
 
+    /** Gets an envelope width ("p" value) without copying the envelope. */
+    double getEnvelopeWidth(int index) {
+        return envelopeWidth[index];
+    }
+
     public EnvelopeData getEnvelope() {
         return new EnvelopeData(realPreutter, realDuration, envelopeWidth, envelopeHeight);
     }
@@ -401,12 +440,8 @@ public class Note {
         }
     }
 
-    public String[] getVibrato() {
-        String[] vibratoValues = new String[10];
-        for (int i = 0; i < 10; i++) {
-            vibratoValues[i] = Integer.toString(vibrato[i]);
-        }
-        return vibratoValues;
+    public int getVibrato(int index) {
+        return vibrato[index];
     }
 
     public double getRealPreutter() {
@@ -441,6 +476,14 @@ public class Note {
         this.trueLyric = trueLyric;
     }
 
+    String getStandardizedConfig() {
+        return this.standardizedConfig;
+    }
+
+    void setStandardizedConfig(String standardizedConfig) {
+        this.standardizedConfig = standardizedConfig;
+    }
+
     public Optional<File> getCacheFile() {
         return this.cacheFile;
     }
@@ -0,0 +1,121 @@
+package com.utsusynth.utsu.model.song;
+
+import com.utsusynth.utsu.common.data.NoteData;
+import com.utsusynth.utsu.common.enums.FilterType;
+import com.utsusynth.utsu.common.utils.PitchUtils;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Read-only cursor over the notes in a region that pass a set of filters. Fields are read straight
+ * from the song, so reading a note and checking filters doesn't allocate anything. Call toNoteData
+ * to keep a copy of a note. The cursor should not be used after the song changes.
+ */
+public class NoteCursor {
+    private final NoteIterator iterator;
+    private final Set<FilterType> filters;
+
+    private Note note;
+
+    NoteCursor(NoteIterator iterator, Collection<FilterType> filters) {
+        this.iterator = iterator;
+        this.filters =
+                filters.isEmpty() ? EnumSet.noneOf(FilterType.class) : EnumSet.copyOf(filters);
+        this.note = null;
+    }
+
+    /**
+     * Moves to the next note that passes every filter.
+     *
+     * @return Whether there was a note to move to.
+     */
+    public boolean next() {
+        while (iterator.hasNext()) {
+            note = iterator.next();
+            if (passesFilters()) {
+                return true;
+            }
+        }
+        note = null;
+        return false;
+    }
+
+    public int getPosition() {
+        return iterator.getCurDelta();
+    }
+
+    public int getDuration() {
+        return note.getDuration();
+    }
+
+    public int getNoteNum() {
+        return note.getNoteNum();
+    }
+
+    public String getLyric() {
+        return note.getLyric();
+    }
+
+    public String getTrueLyric() {
+        return note.getTrueLyric();
+    }
+
+    /** Copies the current note into a NoteData. */
+    public NoteData toNoteData() {
+        return toNoteData(iterator.getCurDelta(), note);
+    }
+
+    static NoteData toNoteData(int position, Note note) {
+        return new NoteData(
+                position,
+                note.getDuration(),
+                PitchUtils.noteNumToPitch(note.getNoteNum()),
+                note.getLyric(),
+                Optional.of(note.getTrueLyric()),
+                Optional.of(note.getEnvelope()),
+                Optional.of(note.getPitchbends()),
+                Optional.of(note.getConfigData()));
+    }
+
+    private boolean passesFilters() {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        // Neighbors are read from their nodes directly so no Optional<Note> is created.
+        Optional<NoteNode> prevNode = iterator.getLastNode().get().getPrev();
+        Note prev = prevNode.isPresent() ? prevNode.get().getNote() : null;
+        if (filters.contains(FilterType.SILENCE_BEFORE)) {
+            if (prev != null && prev.getDuration() == prev.getLength()) {
+                return false;
+            }
+        }
+        if (filters.contains(FilterType.SILENCE_AFTER)) {
+            if (iterator.hasNext() && note.getDuration() == note.getLength()) {
+                return false;
+            }
+        }
+        if (filters.contains(FilterType.RISING_NOTE)) {
+            if (prev == null || prev.getNoteNum() >= note.getNoteNum()) {
+                return false;
+            }
+        }
+        if (filters.contains(FilterType.FALLING_NOTE)) {
+            if (prev == null || prev.getNoteNum() <= note.getNoteNum()) {
+                return false;
+            }
+        }
+        if (filters.contains(FilterType.GREATER_THAN_2ND) && note.getDuration() <= 960) {
+            return false;
+        }
+        if (filters.contains(FilterType.GREATER_THAN_4TH) && note.getDuration() <= 480) {
+            return false;
+        }
+        if (filters.contains(FilterType.GREATER_THAN_8TH) && note.getDuration() <= 240) {
+            return false;
+        }
+        return true;
+    }
+}
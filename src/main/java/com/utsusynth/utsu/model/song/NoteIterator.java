@@ -8,19 +8,27 @@ import com.utsusynth.utsu.common.RegionBounds;
  * Iterator over song notes using a linked list implementation.
  */
 public class NoteIterator implements Iterator<Note> {
+    private final NoteList noteList;
     private final RegionBounds bounds;
 
     private Optional<NoteNode> prevNode;
     private Optional<NoteNode> curNode;
-    int curIndex;
     int curDelta;
 
-    NoteIterator(Optional<NoteNode> startNode, RegionBounds bounds) {
+    /**
+     * @param startNode Node to start searching from for the first note in bounds.
+     * @param startDelta Position of the note before startNode, or 0 if startNode is the head.
+     */
+    NoteIterator(
+            NoteList noteList,
+            Optional<NoteNode> startNode,
+            int startDelta,
+            RegionBounds bounds) {
+        this.noteList = noteList;
         this.bounds = bounds;
         this.prevNode = Optional.empty();
         this.curNode = startNode;
-        this.curIndex = 0;
-        this.curDelta = 0;
+        this.curDelta = startDelta;
 
         // Start at first note contained within bounds, if it exists.
         while (curNode.isPresent()) {
@@ -28,7 +36,6 @@ public class NoteIterator implements Iterator<Note> {
             if (bounds.intersects(newDelta, newDelta + curNode.get().getNote().getDuration())) {
                 break;
             } else {
-                curIndex++;
                 curDelta = newDelta;
                 curNode = curNode.get().getNext();
             }
@@ -46,7 +53,6 @@ public class NoteIterator implements Iterator<Note> {
             return null;
         }
         Note note = curNode.get().getNote();
-        curIndex++;
         curDelta += note.getDelta();
         prevNode = curNode;
 
@@ -63,14 +69,25 @@ public class NoteIterator implements Iterator<Note> {
         return note;
     }
 
+    /** Index of the next note in the song. Counts earlier notes, so avoid calling in loops. */
     public int getCurIndex() {
-        return curIndex;
+        if (curNode.isPresent()) {
+            int nextDelta = curDelta + curNode.get().getNote().getDelta();
+            return noteList.getNumNotesBefore(nextDelta);
+        }
+        // Past the end of the region, so count up to and including the last note seen.
+        return noteList.getNumNotesBefore(curDelta + 1);
     }
 
     public int getCurDelta() {
         return curDelta;
     }
 
+    /** The node that was most recently returned by next(). */
+    Optional<NoteNode> getLastNode() {
+        return prevNode;
+    }
+
     /** Look at the previous node without proceeding in iterator. */
     public Optional<Note> peekPrev() {
         if (!prevNode.isPresent() || !prevNode.get().getPrev().isPresent()) {
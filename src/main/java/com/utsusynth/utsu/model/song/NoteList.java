@@ -1,18 +1,32 @@
 package com.utsusynth.utsu.model.song;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import com.utsusynth.utsu.common.RegionBounds;
 import com.utsusynth.utsu.common.exception.NoteAlreadyExistsException;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
 import com.utsusynth.utsu.model.voicebank.Voicebank;
 
 /**
- * Implementation of a linked list of SongNotes, including head.
+ * Implementation of a linked list of SongNotes, including head. Nodes are also indexed by
+ * absolute position, so finding the note at or around a position doesn't require a walk from
+ * the head of the list.
  */
 public class NoteList implements Iterable<Note> {
+    // Below this many notes, finding lyric configs in parallel isn't worth the overhead.
+    private static final int MIN_NOTES_FOR_PARALLEL = 1000;
+
     private Optional<NoteNode> head;
-    private Map<Integer, NoteNode> nodeMap;
+    private NavigableMap<Integer, NoteNode> nodeMap;
 
     public class Builder {
         private NoteList noteList;
@@ -20,17 +34,23 @@ public class NoteList implements Iterable<Note> {
         private int totalDelta;
         // Delta that is calculated from invalid notes in multi-track UST.
         private int overrideDelta;
+        // Nodes that were added or changed since the list was last standardized.
+        private Set<NoteNode> dirtyNodes;
+        // Whether clean nodes should check for new lyric configs, like after a voicebank change.
+        private boolean checkLyricConfigs;
 
         private Builder(NoteList noteList) {
             this.noteList = noteList;
             this.tail = Optional.empty();
             this.totalDelta = 0;
             this.overrideDelta = 0;
+            this.dirtyNodes = new HashSet<>();
+            this.checkLyricConfigs = false;
         }
 
         private Builder setHead(Optional<NoteNode> newHead) {
             noteList.head = newHead;
-            noteList.nodeMap = new HashMap<>();
+            noteList.nodeMap = new TreeMap<>();
             totalDelta = 0;
             overrideDelta = 0;
             if (newHead.isPresent()) {
@@ -69,6 +89,7 @@ public class NoteList implements Iterable<Note> {
             if (tail.isPresent()) {
                 noteList.nodeMap.put(totalDelta, tail.get());
             }
+            dirtyNodes.add(newNode);
             return this;
         }
 
@@ -84,6 +105,7 @@ public class NoteList implements Iterable<Note> {
             } else if (tail.isPresent()) {
                 int tailLength = tail.get().getNote().getLength();
                 tail.get().getNote().setLength(tailLength + note.getDuration());
+                dirtyNodes.add(tail.get());
             } else {
                 // TODO: throw error
                 System.out.println("Unexpected error while making note list.");
@@ -98,6 +120,7 @@ public class NoteList implements Iterable<Note> {
                 overrideDelta = tail.get().getNote().getLength() + noteLength;
                 // Current tail's length will be the next note's delta.
                 tail.get().getNote().setLength(overrideDelta);
+                dirtyNodes.add(tail.get());
             } else {
                 // If tail does not exist, adjust the delta for the first valid note.
                 if (overrideDelta == 0) {
@@ -108,12 +131,76 @@ public class NoteList implements Iterable<Note> {
             return this;
         }
 
+        /**
+         * Makes notes that were already in the list check whether their lyric configs changed
+         * the next time the list is standardized.
+         */
+        public Builder checkLyricConfigs() {
+            checkLyricConfigs = true;
+            return this;
+        }
+
+        /**
+         * Standardizes every note that was added or changed, along with any neighbors that are
+         * affected by the change. Notes are standardized from last to first.
+         */
         public Builder standardize(NoteStandardizer standardizer, Voicebank voicebank) {
+            if (!noteList.head.isPresent() || (dirtyNodes.isEmpty() && !checkLyricConfigs)) {
+                return this; // Nothing has changed.
+            }
+            // Find which notes changed, from last to first.
+            List<NoteNode> nodes = new ArrayList<>();
             Optional<NoteNode> cur = tail;
             while (cur.isPresent()) {
-                cur.get().standardize(standardizer, voicebank);
+                nodes.add(cur.get());
                 cur = cur.get().getPrev();
             }
+            boolean[] dirty = new boolean[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                dirty[i] = dirtyNodes.contains(nodes.get(i));
+            }
+
+            // Lyric configs only depend on values that standardizing doesn't change, so they can
+            // be found up front, in parallel for large songs. The rest of standardization reads
+            // values that standardizing the next note wrote, so it stays in order.
+            List<Optional<LyricConfig>> configs = findLyricConfigs(
+                    nodes,
+                    i -> checkLyricConfigs || isNearDirty(dirty, i),
+                    standardizer,
+                    voicebank);
+            if (checkLyricConfigs) {
+                for (int i = 0; i < nodes.size(); i++) {
+                    Note note = nodes.get(i).getNote();
+                    dirty[i] |= !standardizer.isConfigCurrent(note, configs.get(i));
+                }
+            }
+
+            // A note depends on both of its neighbors, and on anything that standardizing the
+            // next note changed.
+            boolean nextChanged = false;
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!isNearDirty(dirty, i) && !nextChanged) {
+                    continue;
+                }
+                NoteNode node = nodes.get(i);
+                Note note = node.getNote();
+                String oldLyric = note.getTrueLyric();
+                double oldPreutter = note.getRealPreutter();
+                double oldFadeIn = note.getFadeIn();
+                Optional<LyricConfig> config = configs.get(i);
+                if (config == null) {
+                    // Notes only reached by a change cascading backwards weren't looked up yet.
+                    Optional<Note> prev = node.getPrev().map(NoteNode::getNote);
+                    config = standardizer.findLyricConfig(prev, note, voicebank);
+                }
+                node.standardize(standardizer, config, voicebank);
+                // These are the values that standardizing the previous note reads.
+                nextChanged = !oldLyric.equals(note.getTrueLyric())
+                        || oldPreutter != note.getRealPreutter()
+                        || oldFadeIn != note.getFadeIn();
+            }
+            dirtyNodes.clear();
+            checkLyricConfigs = false;
             return this;
         }
 
@@ -136,7 +223,39 @@ public class NoteList implements Iterable<Note> {
 
     public NoteList() {
         this.head = Optional.empty();
-        this.nodeMap = new HashMap<>();
+        this.nodeMap = new TreeMap<>();
+    }
+
+    // Whether a note or either of its neighbors is dirty, with notes ordered from last to first.
+    private static boolean isNearDirty(boolean[] dirty, int index) {
+        return dirty[index]
+                || (index > 0 && dirty[index - 1])
+                || (index + 1 < dirty.length && dirty[index + 1]);
+    }
+
+    /**
+     * Finds lyric configs for the selected nodes, leaving null for the rest. Large lists are split
+     * into chunks that run on the common fork/join pool. Each lookup also reads the note just
+     * before it, which may belong to a neighboring chunk, but nothing is written until every
+     * lookup is done, so the results are the same as looking them up one at a time.
+     */
+    private static List<Optional<LyricConfig>> findLyricConfigs(
+            List<NoteNode> nodes,
+            IntPredicate shouldFind,
+            NoteStandardizer standardizer,
+            Voicebank voicebank) {
+        IntStream indices = IntStream.range(0, nodes.size());
+        if (nodes.size() >= MIN_NOTES_FOR_PARALLEL) {
+            indices = indices.parallel();
+        }
+        return indices.mapToObj(i -> {
+            if (!shouldFind.test(i)) {
+                return null;
+            }
+            NoteNode node = nodes.get(i);
+            Optional<Note> prev = node.getPrev().map(NoteNode::getNote);
+            return standardizer.findLyricConfig(prev, node.getNote(), voicebank);
+        }).collect(Collectors.toList());
     }
 
     /**
@@ -149,30 +268,24 @@ public class NoteList implements Iterable<Note> {
      */
     NoteNode insertNote(Note noteToInsert, int deltaToInsert) throws NoteAlreadyExistsException {
         NoteNode inserted;
+        Map.Entry<Integer, NoteNode> prevEntry = nodeMap.floorEntry(deltaToInsert);
         if (!head.isPresent()) {
             this.head = Optional.of(new NoteNode(noteToInsert));
             this.head.get().getNote().setDelta(deltaToInsert);
             inserted = this.head.get();
-        } else if (head.get().getNote().getDelta() > deltaToInsert) {
+        } else if (prevEntry == null) {
             this.head = Optional.of(this.head.get().insertFirstNote(noteToInsert, deltaToInsert));
             inserted = this.head.get();
         } else {
-            inserted = this.head.get().insertNote(noteToInsert, deltaToInsert, 0);
+            // Start search at the closest earlier note, which is right before the new note.
+            NoteNode prevNode = prevEntry.getValue();
+            int searchStart = prevEntry.getKey() - prevNode.getNote().getDelta();
+            inserted = prevNode.insertNote(noteToInsert, deltaToInsert, searchStart);
         }
         nodeMap.put(deltaToInsert, inserted);
         return inserted;
     }
 
-    /**
-     * Adds a note to the note list, starting search at a specific node.
-     */
-    NoteNode insertNote(Note noteToInsert, int deltaToInsert, NoteNode startNode, int startDelta)
-            throws NoteAlreadyExistsException {
-        NoteNode inserted = startNode.insertNote(noteToInsert, deltaToInsert, startDelta);
-        nodeMap.put(deltaToInsert, inserted);
-        return inserted;
-    }
-
     /**
      * Removes a note from the note list.
      * 
@@ -195,6 +308,36 @@ public class NoteList implements Iterable<Note> {
         return toRemove;
     }
 
+    /**
+     * Moves every note from firstPosition to lastPosition by positionDelta. The moved notes must
+     * stay between the notes before and after them, so only the deltas at either end change.
+     */
+    void shiftNotes(int firstPosition, int lastPosition, int positionDelta) {
+        NavigableMap<Integer, NoteNode> toShift =
+                nodeMap.subMap(firstPosition, true, lastPosition, true);
+        if (toShift.isEmpty()) {
+            return;
+        }
+        NavigableMap<Integer, NoteNode> shifted = new TreeMap<>(toShift);
+        toShift.clear();
+        for (Map.Entry<Integer, NoteNode> entry : shifted.entrySet()) {
+            nodeMap.put(entry.getKey() + positionDelta, entry.getValue());
+        }
+
+        NoteNode firstNode = shifted.firstEntry().getValue();
+        firstNode.getNote().setDelta(firstNode.getNote().getDelta() + positionDelta);
+        if (firstNode.getPrev().isPresent()) {
+            Note prevNote = firstNode.getPrev().get().getNote();
+            prevNote.safeSetLength(prevNote.getLength() + positionDelta);
+        }
+        NoteNode lastNode = shifted.lastEntry().getValue();
+        if (lastNode.getNext().isPresent()) {
+            lastNode.getNote().safeSetLength(lastNode.getNote().getLength() - positionDelta);
+            Note nextNote = lastNode.getNext().get().getNote();
+            nextNote.setDelta(nextNote.getDelta() - positionDelta);
+        }
+    }
+
     /**
      * Fetches a note from the note list.
      * 
@@ -206,6 +349,31 @@ public class NoteList implements Iterable<Note> {
         return nodeMap.get(deltaOfNote);
     }
 
+    /**
+     * Finds the position of the first note at or after a position.
+     *
+     * @return The position of that note, or empty if there are no notes at or after it.
+     */
+    Optional<Integer> getPositionAtOrAfter(int position) {
+        return Optional.ofNullable(nodeMap.ceilingKey(position));
+    }
+
+    /**
+     * Finds the position of the last note before a position.
+     *
+     * @return The position of that note, or empty if there are no notes before it.
+     */
+    Optional<Integer> getPositionBefore(int position) {
+        return Optional.ofNullable(nodeMap.lowerKey(position));
+    }
+
+    /**
+     * Returns the number of notes that start before a position.
+     */
+    int getNumNotesBefore(int position) {
+        return nodeMap.headMap(position, false).size();
+    }
+
     /**
      * Returns the total number of notes in the note list.
      * 
@@ -220,12 +388,33 @@ public class NoteList implements Iterable<Note> {
         return new Builder(new NoteList()).setHead(this.head);
     }
 
+    /**
+     * Creates a list with a copy of every note, which won't be affected by later changes to this
+     * list or its notes.
+     */
+    NoteList copy() {
+        Builder builder = new NoteList().toBuilder();
+        Optional<NoteNode> cur = head;
+        while (cur.isPresent()) {
+            builder.appendNote(new Note(cur.get().getNote()));
+            cur = cur.get().getNext();
+        }
+        return builder.build();
+    }
+
     @Override
     public NoteIterator iterator() {
-        return new NoteIterator(this.head, RegionBounds.WHOLE_SONG);
+        return new NoteIterator(this, this.head, 0, RegionBounds.WHOLE_SONG);
     }
 
     NoteIterator boundedIterator(RegionBounds bounds) {
-        return new NoteIterator(this.head, bounds);
+        // Earlier notes end before the last note that starts at or before the region.
+        Map.Entry<Integer, NoteNode> startEntry = nodeMap.floorEntry(bounds.getMinMs());
+        if (startEntry == null) {
+            return new NoteIterator(this, this.head, 0, bounds);
+        }
+        NoteNode startNode = startEntry.getValue();
+        int startDelta = startEntry.getKey() - startNode.getNote().getDelta();
+        return new NoteIterator(this, Optional.of(startNode), startDelta, bounds);
     }
 }
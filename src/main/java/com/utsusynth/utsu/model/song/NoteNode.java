@@ -2,6 +2,7 @@ package com.utsusynth.utsu.model.song;
 
 import java.util.Optional;
 import com.utsusynth.utsu.common.exception.NoteAlreadyExistsException;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
 import com.utsusynth.utsu.model.voicebank.Voicebank;
 
 /**
@@ -173,6 +174,13 @@ public class NoteNode {
         standardizer.standardize(prevNote, this.note, nextNote, voicebank);
     }
 
+    void standardize(
+            NoteStandardizer standardizer, Optional<LyricConfig> config, Voicebank voicebank) {
+        Optional<Note> prevNote = getOptionalNote(this.prev);
+        Optional<Note> nextNote = getOptionalNote(this.next);
+        standardizer.standardize(prevNote, this.note, nextNote, config, voicebank);
+    }
+
     private static Optional<Note> getOptionalNote(Optional<NoteNode> fromNode) {
         Optional<Note> maybeNote = Optional.empty();
         if (fromNode.isPresent()) {
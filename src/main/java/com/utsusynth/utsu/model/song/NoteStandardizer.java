@@ -13,6 +13,19 @@ import java.util.Optional;
 public class NoteStandardizer {
     // This function should be called in the order: last note -> first note
     void standardize(Optional<Note> prev, Note note, Optional<Note> next, Voicebank voicebank) {
+        standardize(prev, note, next, findLyricConfig(prev, note, voicebank), voicebank);
+    }
+
+    /**
+     * Standardizes a note using a lyric config that was already found with findLyricConfig.
+     * Should also be called in the order: last note -> first note.
+     */
+    void standardize(
+            Optional<Note> prev,
+            Note note,
+            Optional<Note> next,
+            Optional<LyricConfig> config,
+            Voicebank voicebank) {
         double consonantScaleFactor = Math.pow(2, 1 - (note.getVelocity() / 100.0));
         double realPreutter = 0;
         double realDuration = note.getDuration();
@@ -20,10 +33,7 @@ public class NoteStandardizer {
         double realStartPoint = note.getStartPoint() * consonantScaleFactor;
         String trueLyric = "";
 
-        // Find lyric config, applying auto-aliasing if necessary.
-        String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
-        String prevLyric = getNearbyPrevLyric(prev);
-        Optional<LyricConfig> config = voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
+        note.setStandardizedConfig(getConfigKey(config));
 
         if (config.isPresent()) {
             trueLyric = config.get().getTrueLyric();
@@ -60,16 +70,13 @@ public class NoteStandardizer {
             }
 
             // Ensure that envelope length is not greater than note length, ignoring fade out.
-            double[] envWidths = note.getEnvelope().getWidths();
-            double envLength = realOverlap + envWidths[1] + envWidths[2] + envWidths[4];
-            if (envLength > realDuration - envWidths[3]) {
-                double shrinkFactor = Math.abs(realDuration - envWidths[3]) / envLength;
-                String[] fullEnvelope = note.getFullEnvelope();
+            double envLength = realOverlap + note.getEnvelopeWidth(1) + note.getEnvelopeWidth(2)
+                    + note.getEnvelopeWidth(4);
+            double fadeOut = note.getEnvelopeWidth(3);
+            if (envLength > realDuration - fadeOut) {
+                double shrinkFactor = Math.abs(realDuration - fadeOut) / envLength;
                 realOverlap *= shrinkFactor;
-                fullEnvelope[1] = Double.toString(envWidths[1] * shrinkFactor);
-                fullEnvelope[2] = Double.toString(envWidths[2] * shrinkFactor);
-                fullEnvelope[9] = Double.toString(envWidths[4] * shrinkFactor);
-                note.setEnvelope(fullEnvelope);
+                note.shrinkEnvelope(shrinkFactor);
              }
 
             // Adjust the envelopes to match overlap.
@@ -85,6 +92,34 @@ public class NoteStandardizer {
         // TODO: Enforce pitchbend size/location limits.
     }
 
+    /**
+     * Finds a note's lyric config, applying auto-aliasing if necessary. This only reads the
+     * lyrics and lengths of the note and the one before it, which standardizing doesn't change, so
+     * configs for many notes can be found at once before standardizing them in order.
+     */
+    Optional<LyricConfig> findLyricConfig(Optional<Note> prev, Note note, Voicebank voicebank) {
+        String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
+        String prevLyric = getNearbyPrevLyric(prev);
+        return voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
+    }
+
+    /**
+     * Checks whether a lyric config has the same values the note was last standardized with, for
+     * example after a voicebank change.
+     */
+    boolean isConfigCurrent(Note note, Optional<LyricConfig> config) {
+        return getConfigKey(config).equals(note.getStandardizedConfig());
+    }
+
+    // Summarizes the parts of a lyric config that standardization depends on.
+    private static String getConfigKey(Optional<LyricConfig> config) {
+        if (config.isEmpty()) {
+            return "";
+        }
+        return config.get().getTrueLyric() + " " + config.get().getPreutterance() + " "
+                + config.get().getOverlap();
+    }
+
     // Returns empty string if there is no nearby (within DEFAULT_NOTE_DURATION) previous note.
     private static String getNearbyPrevLyric(Optional<Note> prev) {
         if (prev.isPresent() && prev.get().getLength()
@@ -15,6 +15,7 @@ import com.utsusynth.utsu.model.voicebank.VoicebankContainer;
 
 import java.io.File;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * In-code representation of a song. Compatible with UST versions 1.2 and 2.0.
@@ -39,6 +40,8 @@ public class Song {
     // Set to a value after rendering song, cleared whenever song changes.
     private RegionBounds cacheRegion = RegionBounds.INVALID;
     private Optional<File> cacheFile = Optional.empty();
+    private boolean cacheValid = false; // Stale caches are kept so they can be patched.
+    private long cacheVersion = -1; // Version of the song in the cache.
 
     // Notes. (Anything marked with [#0000]-[#9999], [#TRACKEND] marks the end of these)
     private NoteList noteList;
@@ -46,6 +49,11 @@ public class Song {
     // Pitchbends, kept in a format suitable for rendering.
     private PitchCurve pitchbends;
 
+    // Incremented whenever notes change. Notes of a song in use are only changed on the UI
+    // thread; background threads load voicebanks first and hand the edit over to it.
+    private volatile long version = 0;
+    private Optional<SongSnapshot> snapshot = Optional.empty(); // Reused until notes change.
+
     public class Builder {
         private final Song newSong;
         private final NoteList.Builder noteListBuilder;
@@ -77,6 +85,8 @@ public class Song {
 
         public Builder setVoiceDirectory(File voiceDirectory) {
             newSong.voicebank.setVoicebankForRead(voiceDirectory);
+            // Only notes whose lyric configs changed need to be standardized again.
+            noteListBuilder.checkLyricConfigs();
             return this;
         }
 
@@ -171,37 +181,38 @@ public class Song {
             System.out.println("Error: Add notes called on empty list!");
             return;
         }
-        NoteNode curNode = null; // Where to start search for place to insert new note.
-        int searchStartMs = 0;
+        version++;
         for (NoteData toAdd : notesToAdd) {
-            Note note = new Note();
-            // New note's delta/length may be overridden while inserting into note list.
-            note.setDelta(toAdd.getPosition());
-            note.safeSetDuration(toAdd.getDuration());
-            note.safeSetLength(toAdd.getDuration());
-            note.setLyric(toAdd.getLyric());
-            note.setNoteNum(PitchUtils.pitchToNoteNum(toAdd.getPitch()));
-            if (toAdd.getEnvelope().isPresent()) {
-                note.setEnvelope(toAdd.getEnvelope().get());
-            }
-            if (toAdd.getPitchbend().isPresent()) {
-                note.setPitchbends(toAdd.getPitchbend().get());
-            }
-            if (toAdd.getConfigData().isPresent()) {
-                note.setConfigData(toAdd.getConfigData().get());
-            }
+            insertNote(toAdd);
+        }
+    }
 
-            int positionMs = toAdd.getPosition();
-            try {
-                if (curNode == null) {
-                    curNode = this.noteList.insertNote(note, positionMs);
-                } else {
-                    curNode = this.noteList.insertNote(note, positionMs, curNode, searchStartMs);
-                }
-                searchStartMs = positionMs - curNode.getNote().getDelta();
-            } catch (NoteAlreadyExistsException e) {
-                // Swallow this for now.
-            }
+    /** Inserts a note into the note list, returning whether it was inserted. */
+    private boolean insertNote(NoteData toAdd) {
+        Note note = new Note();
+        // New note's delta/length may be overridden while inserting into note list.
+        note.setDelta(toAdd.getPosition());
+        note.safeSetDuration(toAdd.getDuration());
+        note.safeSetLength(toAdd.getDuration());
+        note.setLyric(toAdd.getLyric());
+        note.setNoteNum(PitchUtils.pitchToNoteNum(toAdd.getPitch()));
+        if (toAdd.getEnvelope().isPresent()) {
+            note.setEnvelope(toAdd.getEnvelope().get());
+        }
+        if (toAdd.getPitchbend().isPresent()) {
+            note.setPitchbends(toAdd.getPitchbend().get());
+        }
+        if (toAdd.getConfigData().isPresent()) {
+            note.setConfigData(toAdd.getConfigData().get());
+        }
+
+        int positionMs = toAdd.getPosition();
+        try {
+            this.noteList.insertNote(note, positionMs);
+            return true;
+        } catch (NoteAlreadyExistsException e) {
+            // Swallow this for now.
+            return false;
         }
     }
 
@@ -213,6 +224,7 @@ public class Song {
             System.out.println("Error: Remove notes called on empty collection!");
             return null;
         }
+        version++;
 
         HashSet<NoteUpdateData> removedNotes = new HashSet<>(); // Return value.
         int firstNeighbor = Integer.MAX_VALUE;
@@ -220,12 +232,7 @@ public class Song {
 
         NoteNode curNode;
         for (int position : positions) {
-            curNode = this.noteList.removeNote(position);
-            clearNoteCache(curNode.getNote());
-            this.pitchbends.removePitchbends(
-                    position,
-                    curNode.getNote().getDuration(),
-                    curNode.getNote().getPitchbends());
+            curNode = removeNote(position);
             removedNotes.add(curNode.getNote().getUpdateData(position));
 
             if (curNode.getPrev().isPresent()) {
@@ -261,27 +268,27 @@ public class Song {
         return new MutateResponse(removedNotes, prevNote, nextNote);
     }
 
+    private NoteNode removeNote(int position) {
+        NoteNode removed = this.noteList.removeNote(position);
+        clearNoteCache(removed.getNote());
+        this.pitchbends.removePitchbends(
+                position,
+                removed.getNote().getDuration(),
+                removed.getNote().getPitchbends());
+        return removed;
+    }
+
     /**
      * Modifies a note in-place without changing its lyric, position, or duration.
      */
     public NoteUpdateData modifyNote(NoteData toModify) {
+        version++;
         int positionMs = toModify.getPosition();
         NoteNode node = this.noteList.getNote(positionMs);
         Note note = node.getNote();
-        // Need to clear previous note's cache in case a pitchbend change affects it.
-        clearNoteCache(note);
-        if (node.getPrev().isPresent()) {
-            clearNoteCache(node.getPrev().get().getNote());
-        }
-
-        if (toModify.getEnvelope().isPresent()) {
-            note.setEnvelope(toModify.getEnvelope().get());
-        }
+        setNoteData(node, toModify);
         if (toModify.getPitchbend().isPresent()) {
-            this.pitchbends.removePitchbends(positionMs, note.getDuration(), note.getPitchbends());
             PitchbendData newPitchbend = toModify.getPitchbend().get();
-            note.setPitchbends(newPitchbend);
-
             int prevNoteNum =
                     node.getPrev().isPresent() ? node.getPrev().get().getNote().getNoteNum()
                             : note.getNoteNum();
@@ -295,10 +302,165 @@ public class Song {
         return note.getUpdateData(positionMs);
     }
 
+    /**
+     * Sets a note's envelope and pitchbends. Its old pitchbends are taken off the pitch curve,
+     * but its new ones are left for the caller to add.
+     */
+    private void setNoteData(NoteNode node, NoteData toModify) {
+        Note note = node.getNote();
+        // Need to clear previous note's cache in case a pitchbend change affects it.
+        clearNoteCache(note);
+        if (node.getPrev().isPresent()) {
+            clearNoteCache(node.getPrev().get().getNote());
+        }
+
+        if (toModify.getEnvelope().isPresent()) {
+            note.setEnvelope(toModify.getEnvelope().get());
+        }
+        if (toModify.getPitchbend().isPresent()) {
+            this.pitchbends.removePitchbends(
+                    toModify.getPosition(), note.getDuration(), note.getPitchbends());
+            note.setPitchbends(toModify.getPitchbend().get());
+        }
+    }
+
+    /**
+     * Applies a batch of edits in one pass over the note list, then standardizes every note the
+     * edits affected at once, rather than once per edit.
+     *
+     * @return Frontend updates for the notes that were standardized.
+     */
+    public MutateResponse edit(Consumer<SongTransaction> edits) {
+        SongTransaction transaction = new SongTransaction();
+        edits.accept(transaction);
+        if (transaction.isEmpty()) {
+            return new MutateResponse(new LinkedList<>(), Optional.empty(), Optional.empty());
+        }
+        version++;
+        TreeSet<Integer> dirtyPositions = new TreeSet<>(); // Notes that need standardizing.
+
+        for (int position : transaction.getPositionsToRemove()) {
+            if (noteList.getNote(position) == null) {
+                System.out.println("Warning: tried to remove a note that doesn't exist.");
+                continue;
+            }
+            removeNote(position);
+        }
+        for (NoteData toAdd : transaction.getNotesToAdd()) {
+            if (insertNote(toAdd)) {
+                dirtyPositions.add(toAdd.getPosition());
+            }
+        }
+        for (NoteData toModify : transaction.getNotesToModify()) {
+            NoteNode node = noteList.getNote(toModify.getPosition());
+            if (node == null) {
+                System.out.println("Warning: tried to modify a note that doesn't exist.");
+                continue;
+            }
+            // New pitchbends are added to the pitch curve during standardization.
+            setNoteData(node, toModify);
+            dirtyPositions.add(toModify.getPosition());
+        }
+        // Notes on either side of a removed note now have new neighbors.
+        for (int position : transaction.getPositionsToRemove()) {
+            noteList.getPositionBefore(position).ifPresent(dirtyPositions::add);
+            noteList.getPositionAtOrAfter(position).ifPresent(dirtyPositions::add);
+        }
+
+        if (dirtyPositions.isEmpty()) {
+            return new MutateResponse(new LinkedList<>(), Optional.empty(), Optional.empty());
+        }
+        return standardizeNotes(dirtyPositions.first(), dirtyPositions.last());
+    }
+
+    /**
+     * Moves notes in time and pitch. When the notes are next to each other in the song and stay
+     * between the same neighbors, they're moved in place rather than removed and added again.
+     *
+     * @param positions Positions of the notes to move.
+     * @param positionDelta How far to move the notes in time.
+     * @param noteNumDelta How many semitones to move the notes up or down.
+     * @return Frontend updates for the moved notes and their neighbors.
+     */
+    public MutateResponse shiftNotes(
+            Collection<Integer> positions, int positionDelta, int noteNumDelta) {
+        TreeSet<Integer> toShift = new TreeSet<>(positions);
+        if (toShift.isEmpty()) {
+            return new MutateResponse(new LinkedList<>(), Optional.empty(), Optional.empty());
+        }
+        if (!canShiftInPlace(toShift, positionDelta)) {
+            List<NoteData> shifted = new ArrayList<>();
+            for (int position : toShift) {
+                NoteNode node = noteList.getNote(position);
+                if (node == null) {
+                    continue;
+                }
+                Note note = node.getNote();
+                shifted.add(new NoteData(
+                        position + positionDelta,
+                        note.getDuration(),
+                        PitchUtils.noteNumToPitch(note.getNoteNum() + noteNumDelta),
+                        note.getLyric(),
+                        Optional.of(note.getTrueLyric()),
+                        Optional.of(note.getEnvelope()),
+                        Optional.of(note.getPitchbends()),
+                        Optional.of(note.getConfigData())));
+            }
+            return edit(edit -> edit.removeNotes(toShift).addNotes(shifted));
+        }
+        version++;
+        for (int position : toShift) {
+            Note note = noteList.getNote(position).getNote();
+            clearNoteCache(note);
+            // New pitchbends are added to the pitch curve during standardization.
+            this.pitchbends.removePitchbends(position, note.getDuration(), note.getPitchbends());
+            note.setNoteNum(note.getNoteNum() + noteNumDelta);
+        }
+        // The note before may get shorter, which changes where its vibrato goes.
+        Optional<Integer> prevPosition = noteList.getPositionBefore(toShift.first());
+        if (prevPosition.isPresent()) {
+            Note prevNote = noteList.getNote(prevPosition.get()).getNote();
+            this.pitchbends.removePitchbends(
+                    prevPosition.get(), prevNote.getDuration(), prevNote.getPitchbends());
+        }
+        noteList.shiftNotes(toShift.first(), toShift.last(), positionDelta);
+        return standardizeNotes(
+                prevPosition.orElse(toShift.first() + positionDelta),
+                toShift.last() + positionDelta);
+    }
+
+    // Whether notes are next to each other and stay between the same neighbors once moved.
+    private boolean canShiftInPlace(TreeSet<Integer> positions, int positionDelta) {
+        NoteNode firstNode = noteList.getNote(positions.first());
+        if (firstNode == null) {
+            return false;
+        }
+        int newFirstPosition = positions.first() + positionDelta;
+        if (newFirstPosition < 0) {
+            return false;
+        }
+        if (firstNode.getPrev().isPresent()
+                && newFirstPosition <= positions.first() - firstNode.getNote().getDelta()) {
+            return false;
+        }
+        Optional<NoteNode> curNode = Optional.of(firstNode);
+        int curPosition = positions.first();
+        for (int position : positions) {
+            if (curNode.isEmpty() || curPosition != position) {
+                return false; // There's another note in between.
+            }
+            curPosition += curNode.get().getNote().getLength();
+            curNode = curNode.get().getNext();
+        }
+        // Current node is now the one after the last note to move.
+        return curNode.isEmpty() || positions.last() + positionDelta < curPosition;
+    }
+
     /**
      * Standardizes a set of notes.
      */
     public MutateResponse standardizeNotes(int firstPosition, int lastPosition) {
+        version++;
         LinkedList<NoteUpdateData> updatedNotes = new LinkedList<>();
         Optional<NoteUpdateData> prevNeighbor = Optional.empty();
         Optional<NoteUpdateData> nextNeighbor = Optional.empty();
@@ -381,83 +543,33 @@ public class Song {
         }
     }
 
-    public LinkedList<NoteData> getNotes() {
+    public List<NoteData> getNotes() {
         return getNotes(RegionBounds.WHOLE_SONG);
     }
 
-    public LinkedList<NoteData> getNotes(RegionBounds bounds) {
+    public List<NoteData> getNotes(RegionBounds bounds) {
         return getNotes(bounds, new ArrayList<>());
     }
 
-    public LinkedList<NoteData> getNotes(RegionBounds bounds, List<FilterType> filters) {
-        LinkedList<NoteData> notes = new LinkedList<>();
-        NoteIterator iterator = noteList.boundedIterator(bounds);
-        while (iterator.hasNext()) {
-            Note note = iterator.next();
-            // Apply all filters.
-            if (filters.contains(FilterType.SILENCE_BEFORE)) {
-                Optional<Note> prev = iterator.peekPrev();
-                if (prev.isPresent() && prev.get().getDuration() == prev.get().getLength()) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.SILENCE_AFTER)) {
-                Optional<Note> next = iterator.peekNext();
-                if (next.isPresent() && note.getDuration() == note.getLength()) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.RISING_NOTE)) {
-                Optional<Note> prev = iterator.peekPrev();
-                if (prev.isEmpty() || prev.get().getNoteNum() >= note.getNoteNum()) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.FALLING_NOTE)) {
-                Optional<Note> prev = iterator.peekPrev();
-                if (prev.isEmpty() || prev.get().getNoteNum() <= note.getNoteNum()) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.GREATER_THAN_2ND)) {
-                if (note.getDuration() <= 960) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.GREATER_THAN_4TH)) {
-                if (note.getDuration() <= 480) {
-                    continue;
-                }
-            }
-            if (filters.contains(FilterType.GREATER_THAN_8TH)) {
-                if (note.getDuration() <= 240) {
-                    continue;
-                }
-            }
-            notes.add(
-                    new NoteData(
-                            iterator.getCurDelta(),
-                            note.getDuration(),
-                            PitchUtils.noteNumToPitch(note.getNoteNum()),
-                            note.getLyric(),
-                            Optional.of(note.getTrueLyric()),
-                            Optional.of(note.getEnvelope()),
-                            Optional.of(note.getPitchbends()),
-                            Optional.of(note.getConfigData())));
+    public List<NoteData> getNotes(RegionBounds bounds, List<FilterType> filters) {
+        List<NoteData> notes = new ArrayList<>();
+        NoteCursor cursor = getNoteCursor(bounds, filters);
+        while (cursor.next()) {
+            notes.add(cursor.toNoteData());
         }
         return notes;
     }
 
+    /**
+     * Reads notes in a region without copying them, skipping any that don't pass the filters.
+     * The cursor should be used and discarded before the song is changed.
+     */
+    public NoteCursor getNoteCursor(RegionBounds bounds, List<FilterType> filters) {
+        return new NoteCursor(noteList.boundedIterator(bounds), filters);
+    }
+
     public NoteData getNote(int position) {
-        Note note = noteList.getNote(position).getNote();
-        return new NoteData(position,
-                note.getDuration(),
-                PitchUtils.noteNumToPitch(note.getNoteNum()),
-                note.getLyric(),
-                Optional.of(note.getTrueLyric()),
-                Optional.of(note.getEnvelope()),
-                Optional.of(note.getPitchbends()),
-                Optional.of(note.getConfigData()));
+        return NoteCursor.toNoteData(position, noteList.getNote(position).getNote());
     }
 
     public Optional<Integer> getNextNote(int currentPos) {
@@ -468,6 +580,11 @@ public class Song {
         return Optional.empty();
     }
 
+    /** Finds the position of the first note that starts at or after the given position. */
+    public Optional<Integer> getFirstNoteAtOrAfter(int positionMs) {
+        return noteList.getPositionAtOrAfter(positionMs);
+    }
+
     public Optional<Integer> getPrevNote(int currentPos) {
         NoteNode curNode = noteList.getNote(currentPos);
         if (curNode != null && curNode.getPrev().isPresent()) {
@@ -477,6 +594,7 @@ public class Song {
     }
 
     public void clearAllCacheValues() {
+        version++; // Voicebank may have changed.
         // Clear song cache.
         clearCache();
         // Clear all note caches.
@@ -485,31 +603,86 @@ public class Song {
         }
     }
 
-    // Can be changed without converting song to a builder and back.
-    public void setCache(RegionBounds cacheRegion, File cacheFile) {
-        clearCache();
+    /**
+     * Takes a snapshot of the song that won't be affected by later edits. Only the UI thread
+     * should take snapshots, since that is the thread that edits notes.
+     */
+    public SongSnapshot snapshot() {
+        Voicebank currentVoicebank = voicebank.get();
+        if (snapshot.isPresent()
+                && snapshot.get().getVersion() == version
+                && snapshot.get().getVoicebank() == currentVoicebank) {
+            return snapshot.get();
+        }
+        snapshot = Optional.of(new SongSnapshot(
+                this,
+                version,
+                voicebank.getLocation(),
+                currentVoicebank,
+                noteList.copy(),
+                pitchbends.snapshot()));
+        return snapshot.get();
+    }
+
+    /**
+     * Can be changed without converting song to a builder and back. Renders of a version older
+     * than the current one are ignored, so they can't replace or delete a newer render.
+     *
+     * @return Whether the render is now the song's cache.
+     */
+    synchronized boolean setCache(
+            RegionBounds cacheRegion, File cacheFile, long renderedVersion) {
+        if (!isUpToDate(renderedVersion)) {
+            return false;
+        }
+        if (!this.cacheFile.equals(Optional.of(cacheFile))) {
+            clearCache();
+        }
         this.cacheRegion = cacheRegion;
         this.cacheFile = Optional.of(cacheFile);
+        this.cacheValid = true;
+        this.cacheVersion = renderedVersion;
+        return true;
     }
 
-    public void clearCache() {
+    public synchronized void clearCache() {
         cacheFile.ifPresent(cacheManager::clearCache);
         cacheRegion = RegionBounds.INVALID;
         cacheFile = Optional.empty();
+        cacheValid = false;
+    }
+
+    /**
+     * Marks the song cache as out of date without deleting it, so that the next render of the
+     * same region can patch the notes that changed instead of starting from scratch.
+     */
+    public synchronized void invalidateCache() {
+        cacheValid = false;
+    }
+
+    /** Whether the notes haven't changed since the given version was rendered. */
+    boolean isUpToDate(long renderedVersion) {
+        return renderedVersion >= version;
+    }
+
+    synchronized boolean isCacheValid(long renderedVersion) {
+        return cacheValid
+                && renderedVersion == version
+                && cacheVersion == version
+                && cacheFile.isPresent()
+                && cacheFile.get().exists();
     }
 
-    public RegionBounds getCacheRegion() {
+    public synchronized RegionBounds getCacheRegion() {
         return cacheRegion;
     }
 
-    public Optional<File> getCacheFile() {
+    public synchronized Optional<File> getCacheFile() {
         return cacheFile;
     }
 
     private void clearNoteCache(Note note) {
-        if (note.getCacheFile().isPresent()) {
-            cacheManager.clearCache(note.getCacheFile().get());
-        }
+        // Rendered notes stay in the persistent cache in case the same note is rendered again.
         note.setCacheFile(Optional.empty());
     }
 
@@ -0,0 +1,141 @@
+package com.utsusynth.utsu.model.song;
+
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.model.song.pitch.PitchCurve;
+import com.utsusynth.utsu.model.voicebank.Voicebank;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * Read-only view of a song as it was when the snapshot was taken. Edits to the song don't affect
+ * the snapshot, so it can be rendered or saved on another thread while editing continues.
+ */
+public class SongSnapshot {
+    private final Song song; // Song this snapshot was taken from.
+    private final long version; // Version of the song when this snapshot was taken.
+
+    private final double tempo;
+    private final String projectName;
+    private final File outputFile;
+    private final String flags;
+    private final boolean mode2;
+    private final Optional<File> instrumental;
+    private final File voiceDir;
+    private final Voicebank voicebank;
+    private final NoteList noteList;
+    private final PitchCurve pitchbends;
+
+    SongSnapshot(
+            Song song,
+            long version,
+            File voiceDir,
+            Voicebank voicebank,
+            NoteList noteList,
+            PitchCurve pitchbends) {
+        this.song = song;
+        this.version = version;
+        this.tempo = song.getTempo();
+        this.projectName = song.getProjectName();
+        this.outputFile = song.getOutputFile();
+        this.flags = song.getFlags();
+        this.mode2 = song.getMode2();
+        this.instrumental = song.getInstrumental();
+        this.voiceDir = voiceDir;
+        this.voicebank = voicebank;
+        this.noteList = noteList;
+        this.pitchbends = pitchbends;
+    }
+
+    /**
+     * Song this snapshot was taken from. It may be changing on another thread, so it should only
+     * be used to tell which song a snapshot belongs to.
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public File getVoiceDir() {
+        return voiceDir;
+    }
+
+    public Voicebank getVoicebank() {
+        return voicebank;
+    }
+
+    public NoteIterator getNoteIterator() {
+        return noteList.iterator();
+    }
+
+    public NoteIterator getNoteIterator(RegionBounds bounds) {
+        return noteList.boundedIterator(bounds);
+    }
+
+    public String getFlags() {
+        return flags;
+    }
+
+    public double getTempo() {
+        return tempo;
+    }
+
+    public boolean getMode2() {
+        return mode2;
+    }
+
+    public Optional<File> getInstrumental() {
+        return instrumental;
+    }
+
+    public int getNumNotes() {
+        return noteList.getSize();
+    }
+
+    public String getPitchString(int firstPitchStep, int lastPitchStep, int noteNum) {
+        return pitchbends.renderPitchbends(firstPitchStep, lastPitchStep, noteNum);
+    }
+
+    /**
+     * Sets the song's render cache to a render of this snapshot. Does nothing if the song has
+     * changed since the snapshot was taken.
+     *
+     * @return Whether the render is now the song's cache.
+     */
+    public boolean setCache(RegionBounds cacheRegion, File cacheFile) {
+        return song.setCache(cacheRegion, cacheFile, version);
+    }
+
+    /** Whether the song hasn't changed since the snapshot was taken. */
+    public boolean isUpToDate() {
+        return song.isUpToDate(version);
+    }
+
+    public void clearCache() {
+        song.clearCache();
+    }
+
+    /** Whether the song's render cache is valid and matches this snapshot. */
+    public boolean isCacheValid() {
+        return song.isCacheValid(version);
+    }
+
+    public RegionBounds getCacheRegion() {
+        return song.getCacheRegion();
+    }
+
+    public Optional<File> getCacheFile() {
+        return song.getCacheFile();
+    }
+}
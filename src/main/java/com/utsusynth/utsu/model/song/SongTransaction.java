@@ -0,0 +1,62 @@
+package com.utsusynth.utsu.model.song;
+
+import com.utsusynth.utsu.common.data.NoteData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A batch of edits to a song, which Song.edit applies all at once. Notes are removed first, then
+ * added, then modified, regardless of the order edits were made in.
+ */
+public class SongTransaction {
+    private final TreeSet<Integer> positionsToRemove;
+    private final List<NoteData> notesToAdd;
+    private final List<NoteData> notesToModify;
+
+    SongTransaction() {
+        this.positionsToRemove = new TreeSet<>();
+        this.notesToAdd = new ArrayList<>();
+        this.notesToModify = new ArrayList<>();
+    }
+
+    /** Removes the notes at the given positions. */
+    public SongTransaction removeNotes(Collection<Integer> positions) {
+        positionsToRemove.addAll(positions);
+        return this;
+    }
+
+    /** Adds notes to the song. Notes that land on an existing note are skipped. */
+    public SongTransaction addNotes(Collection<NoteData> notes) {
+        notesToAdd.addAll(notes);
+        return this;
+    }
+
+    /** Modifies a note without changing its lyric, position, or duration. */
+    public SongTransaction modifyNote(NoteData note) {
+        notesToModify.add(note);
+        return this;
+    }
+
+    boolean isEmpty() {
+        return positionsToRemove.isEmpty() && notesToAdd.isEmpty() && notesToModify.isEmpty();
+    }
+
+    TreeSet<Integer> getPositionsToRemove() {
+        return positionsToRemove;
+    }
+
+    /** Notes to add, in order of position. */
+    List<NoteData> getNotesToAdd() {
+        List<NoteData> sorted = new ArrayList<>(notesToAdd);
+        sorted.sort(Comparator.comparingInt(NoteData::getPosition));
+        return sorted;
+    }
+
+    List<NoteData> getNotesToModify() {
+        return notesToModify;
+    }
+}
@@ -1,31 +1,69 @@
 package com.utsusynth.utsu.model.song.pitch;
 
 import java.util.HashMap;
-import java.util.Optional;
+import java.util.List;
+import java.util.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.model.song.pitch.SegmentIndex.Segment;
 import com.utsusynth.utsu.model.song.pitch.portamento.Portamento;
 import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
 
 /**
- * Stores up to one pitchbend for each "pitch step" in a song. There are always 96 pitch steps per
- * beat, regardless of tempo.
+ * Stores the pitchbends of a song as segments, each of which covers a range of "pitch steps."
+ * There are always 96 pitch steps per beat, regardless of tempo.
  */
 public class PitchCurve {
-    // Map of pitch step number to attached pitchbend, if any.
+    private static final int MAX_PITCH_STRINGS = 10000; // Bounds memory used by pitch strings.
+
+    // Portamento and vibrato segments, indexed by the pitch steps they cover.
     // TODO: Limit the minimum and maximum x-values of portamento/vibrato.
-    private final HashMap<Integer, Pitchbend> pitchbends;
+    private final SegmentIndex<NotePortamento> portamentos;
+    private final SegmentIndex<Vibrato> vibratos;
     private final PortamentoFactory portamentoFactory;
 
+    private final PitchStringEncoder encoder;
+    private final HashMap<PitchStringKey, String> pitchStrings; // Previously rendered strings.
+    private long version; // Incremented whenever pitchbends are added or removed.
+    private long pitchStringsVersion; // Version of the curve that pitchStrings came from.
+
+    // Last snapshot of the curve, which can be reused until the curve changes.
+    private PitchCurve snapshot;
+    private long snapshotVersion;
+
     @Inject
     public PitchCurve(PortamentoFactory portamentoFactory) {
-        this.pitchbends = new HashMap<>();
+        this(new SegmentIndex<>(), new SegmentIndex<>(), portamentoFactory);
+    }
+
+    private PitchCurve(
+            SegmentIndex<NotePortamento> portamentos,
+            SegmentIndex<Vibrato> vibratos,
+            PortamentoFactory portamentoFactory) {
+        this.portamentos = portamentos;
+        this.vibratos = vibratos;
         this.portamentoFactory = portamentoFactory;
+        this.encoder = new PitchStringEncoder();
+        this.pitchStrings = new HashMap<>();
+        this.version = 0;
+        this.pitchStringsVersion = 0;
+    }
+
+    /**
+     * Returns a copy of the curve that won't be affected by later changes. The same copy is
+     * returned until this curve changes, so pitch strings it has rendered are kept.
+     */
+    public synchronized PitchCurve snapshot() {
+        if (snapshot == null || snapshotVersion != version) {
+            snapshot = new PitchCurve(portamentos.copy(), vibratos.copy(), portamentoFactory);
+            snapshotVersion = version;
+        }
+        return snapshot;
     }
 
     /** Adds pitchbends for a single note. */
-    public void addPitchbends(
+    public synchronized void addPitchbends(
             int noteStartMs,
             int noteLengthMs,
             PitchbendData data,
@@ -35,6 +73,7 @@ public class PitchCurve {
             // TODO: Handle this.
             return;
         }
+        version++;
         // Start x value (in milliseconds) and y value (in tenths) of a pitchbend.
         double startMs = noteStartMs + data.getPBS().get(0);
         double pitchStart = prevNoteNum * 10; // Measured in tenths (1/10 a semitone.)
@@ -58,13 +97,16 @@ public class PitchCurve {
                     .makePortamento(startMs, pitchStart, endMs, pitchEnd, pitchShape);
 
             // Add portamento to all affected steps on the pitch curve.
-            for (int j = nextPitchStep(startMs); j <= prevPitchStep(endMs); j++) {
-                if (pitchbends.containsKey(j)) {
-                    pitchbends.get(j).addPortamento(noteStartMs, portamento);
-                } else {
-                    pitchbends.put(j, Pitchbend.makePitchbend(noteStartMs, portamento));
+            int firstStep = nextPitchStep(startMs);
+            int lastStep = prevPitchStep(endMs);
+            for (Segment<NotePortamento> other : portamentos.getOverlapping(firstStep, lastStep)) {
+                if (other.getValue().noteStartMs == noteStartMs) {
+                    // TODO: Handle this.
+                    System.out.println("Error: tried to add portamento twice.");
+                    break;
                 }
             }
+            portamentos.add(firstStep, lastStep, new NotePortamento(noteStartMs, portamento));
             // End of the current pitchbend is the start of the next one.
             startMs = endMs;
             pitchStart = pitchEnd;
@@ -86,142 +128,166 @@ public class PitchCurve {
                     data.getVibrato(5),
                     data.getVibrato(6),
                     data.getVibrato(8));
-            for (int i = nextPitchStep(vibratoStartMs); i < prevPitchStep(vibratoEndMs); i++) {
-                if (pitchbends.containsKey(i)) {
-                    pitchbends.get(i).addVibrato(vibrato);
-                } else {
-                    pitchbends.put(i, Pitchbend.makePitchbend(vibrato));
-                }
+            int firstStep = nextPitchStep(vibratoStartMs);
+            int lastStep = prevPitchStep(vibratoEndMs) - 1;
+            if (!vibratos.getOverlapping(firstStep, lastStep).isEmpty()) {
+                // TODO: Handle this.
+                System.out.println("Error: tried to add overlapping vibrato.");
             }
+            vibratos.add(firstStep, lastStep, vibrato);
         }
     }
 
     /** Removes pitchbends for a single note. */
-    public void removePitchbends(int noteStartMs, int noteLengthMs, PitchbendData data) {
+    public synchronized void removePitchbends(
+            int noteStartMs, int noteLengthMs, PitchbendData data) {
         if (data.getPBS().isEmpty() || data.getPBW().isEmpty()) {
             // TODO: Handle this.
             return;
         }
+        version++;
         double startMs = noteStartMs + data.getPBS().get(0);
         double endMs = startMs;
         for (double width : data.getPBW()) {
             endMs += width;
         }
-        for (int i = nextPitchStep(startMs); i <= prevPitchStep(endMs); i++) {
-            // Remove portamento from each pitch step it covers.
-            if (pitchbends.containsKey(i)) {
-                Pitchbend pitchbend = pitchbends.get(i);
-                pitchbend.removePortamento(noteStartMs);
-                if (pitchbend.isEmpty()) {
-                    pitchbends.remove(i);
-                }
-            }
-        }
+        // Remove this note's portamento from the steps it covers.
+        portamentos.remove(
+                nextPitchStep(startMs),
+                prevPitchStep(endMs),
+                portamento -> portamento.noteStartMs == noteStartMs);
 
         // Remove vibrato from the entire note.
         if (data.getVibrato(0) > 0 || data.getVibrato(1) > 0) {
             double noteEndMs = noteStartMs + noteLengthMs;
-            for (int i = nextPitchStep(noteStartMs); i < prevPitchStep(noteEndMs); i++) {
-                if (pitchbends.containsKey(i)) {
-                    Pitchbend pitchbend = pitchbends.get(i);
-                    pitchbend.removeVibrato();
-                    if (pitchbend.isEmpty()) {
-                        pitchbends.remove(i);
-                    }
-                }
-            }
+            vibratos.remove(
+                    nextPitchStep(noteStartMs), prevPitchStep(noteEndMs) - 1, vibrato -> true);
         }
     }
 
     /** Writes out pitchbends for a section into a format readable by resamplers. */
-    public String renderPitchbends(int firstStep, int lastStep, int noteNum) {
-        StringBuilder result = new StringBuilder();
+    public synchronized String renderPitchbends(int firstStep, int lastStep, int noteNum) {
+        // Pitch strings stay valid until the curve changes.
+        if (pitchStringsVersion != version) {
+            pitchStrings.clear();
+            pitchStringsVersion = version;
+        }
+        PitchStringKey key = new PitchStringKey(firstStep, lastStep, noteNum);
+        String pitchString = pitchStrings.get(key);
+        if (pitchString == null) {
+            pitchString = encodePitchbends(firstStep, lastStep, noteNum);
+            if (pitchStrings.size() >= MAX_PITCH_STRINGS) {
+                pitchStrings.clear();
+            }
+            pitchStrings.put(key, pitchString);
+        }
+        return pitchString;
+    }
+
+    /** Number of times the curve has been changed, which can be used to detect changes. */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    private String encodePitchbends(int firstStep, int lastStep, int noteNum) {
+        encoder.reset();
+        if (lastStep < firstStep) {
+            return encoder.finish();
+        }
+        // Find the portamento and vibrato that apply to each step.
+        int numSteps = lastStep - firstStep + 1;
+        Portamento[] portamentoSteps = new Portamento[numSteps];
+        Vibrato[] vibratoSteps = new Vibrato[numSteps];
+        List<Segment<NotePortamento>> portamentoSegments =
+                portamentos.getOverlapping(firstStep, lastStep);
+        // Portamento of the note with the highest delta wins, then the one added first.
+        portamentoSegments.sort((first, second) -> {
+            int byNote = Integer.compare(
+                    first.getValue().noteStartMs, second.getValue().noteStartMs);
+            return byNote != 0 ? byNote : Long.compare(second.getOrder(), first.getOrder());
+        });
+        for (Segment<NotePortamento> segment : portamentoSegments) {
+            fillSteps(portamentoSteps, firstStep, segment, segment.getValue().portamento);
+        }
+        // Vibrato that was added first wins.
+        List<Segment<Vibrato>> vibratoSegments = vibratos.getOverlapping(firstStep, lastStep);
+        vibratoSegments.sort((first, second) -> Long.compare(second.getOrder(), first.getOrder()));
+        for (Segment<Vibrato> segment : vibratoSegments) {
+            fillSteps(vibratoSteps, firstStep, segment, segment.getValue());
+        }
+        // Evaluate each run of steps that share a portamento or vibrato in one call.
+        double[] portamentoPitches = applyRuns(portamentoSteps, firstStep); // In tenths.
+        double[] vibratoPitches = applyRuns(vibratoSteps, firstStep); // In tenths.
+
         double noteNumPitch = noteNum * 10; // In tenths. (1/10 of a semitone)
         double defaultPitch = 0; // In tenths. (1/10 of a semitone)
-        for (int scanStep = firstStep; scanStep <= lastStep; scanStep++) {
+        for (Portamento portamento : portamentoSteps) {
             // Scan through the steps until first default pitch is found.
-            if (pitchbends.containsKey(scanStep)) {
-                Optional<Portamento> portamento = pitchbends.get(scanStep).getPortamento();
-                if (portamento.isPresent()) {
-                    defaultPitch = portamento.get().getStartPitch();
-                    break;
-                }
+            if (portamento != null) {
+                defaultPitch = portamento.getStartPitch();
+                break;
             }
         }
 
-        for (int step = firstStep; step <= lastStep; step++) {
-            if (pitchbends.containsKey(step)) {
-                // Write pitchbend.
-                int positionMs = step * 5; // 92 pitch steps in a beat of 480 ms.
-                double realPitch = pitchbends.get(step).apply(positionMs); // In tenths.
-                if (!pitchbends.get(step).getPortamento().isPresent()) {
-                    realPitch += defaultPitch; // Vibrato modifies default pitch if no portamento.
-                }
-                int diff = (int) ((realPitch - noteNumPitch) * 10); // In cents.
-                result.append(convertTo12Bit(diff));
+        for (int i = 0; i < numSteps; i++) {
+            Portamento portamento = portamentoSteps[i];
+            if (portamento != null || vibratoSteps[i] != null) {
+                // Write pitchbend. Vibrato modifies default pitch if there's no portamento.
+                double realPitch = portamento != null ? portamentoPitches[i] : defaultPitch;
+                realPitch += vibratoPitches[i];
+                encoder.appendPitch((int) ((realPitch - noteNumPitch) * 10)); // In cents.
 
                 // Set the default pitch to the one at the end of current portamento.
-                Optional<Portamento> portamento = pitchbends.get(step).getPortamento();
-                if (portamento.isPresent()) {
-                    defaultPitch = portamento.get().getEndPitch();
+                if (portamento != null) {
+                    defaultPitch = portamento.getEndPitch();
                 }
             } else {
                 // Write a stretch of no pitchbends.
                 int numEmpty = 0;
-                int emptyStep = step;
-                for (; emptyStep <= lastStep; emptyStep++) {
-                    if (pitchbends.containsKey(emptyStep)) {
+                int emptyIndex = i;
+                for (; emptyIndex < numSteps; emptyIndex++) {
+                    if (portamentoSteps[emptyIndex] != null || vibratoSteps[emptyIndex] != null) {
                         break;
                     } else {
                         numEmpty++;
                     }
                 }
-                int diff = (int) ((defaultPitch - noteNumPitch) * 10); // In cents.
-                result.append(convertTo12Bit(diff));
+                encoder.appendPitch((int) ((defaultPitch - noteNumPitch) * 10)); // In cents.
                 if (numEmpty > 1) {
-                    result.append(String.format("#%d#", numEmpty - 1));
+                    encoder.appendRepeats(numEmpty - 1);
                 }
-                step = emptyStep - 1; // Move step to the end of the empty stretch.
+                i = emptyIndex - 1; // Move step to the end of the empty stretch.
             }
         }
-        return result.toString();
+        return encoder.finish();
     }
 
-    /**
-     * For some reason, resamplers want two characters that represent a 12-bit number in two's
-     * complement form (-2048 to 2047). I would not be using this format if existing resamplers
-     * didn't require it.
-     * 
-     * @return A string of length 2 representing a 12-bit number.
-     */
-    private static String convertTo12Bit(int convertMe) {
-        // Convert out of two's complement form.
-        if (convertMe < 0) {
-            convertMe += 4096;
-        }
-        // Make sure convertMe is between 0 and 4095.
-        convertMe = Math.max(0, Math.min(4095, convertMe));
-        StringBuilder result = new StringBuilder(); // Set to 0 by default.
-        for (int sixBitNumber : ImmutableList.of(convertMe / 64, convertMe % 64)) {
-            if (sixBitNumber >= 0 && sixBitNumber < 26) {
-                result.append((char) (sixBitNumber + 'A'));
-            } else if (sixBitNumber >= 26 && sixBitNumber < 52) {
-                result.append((char) (sixBitNumber - 26 + 'a'));
-            } else if (sixBitNumber >= 52 && sixBitNumber < 62) {
-                result.append((char) (sixBitNumber - 52 + '0'));
-            } else if (sixBitNumber == 62) {
-                result.append('+');
-            } else if (sixBitNumber == 63) {
-                result.append('/');
-            } else {
-                // Return 0 if the number is not in range [0, 64).
-                return "AA";
-            }
+    // Sets every step a segment covers, within a range starting at firstStep.
+    private static <T> void fillSteps(
+            T[] steps, int firstStep, Segment<?> segment, T value) {
+        int from = Math.max(segment.getFirstStep() - firstStep, 0);
+        int to = Math.min(segment.getLastStep() - firstStep, steps.length - 1);
+        for (int i = from; i <= to; i++) {
+            steps[i] = value;
         }
-        if (result.length() != 2) {
-            return "AA";
+    }
+
+    // Applies each step's mutation, or leaves it at 0 if it has none.
+    private static double[] applyRuns(PitchMutation[] steps, int firstStep) {
+        double[] result = new double[steps.length];
+        int runStart = 0;
+        while (runStart < steps.length) {
+            int runEnd = runStart;
+            while (runEnd + 1 < steps.length && steps[runEnd + 1] == steps[runStart]) {
+                runEnd++;
+            }
+            if (steps[runStart] != null) {
+                steps[runStart].apply(
+                        firstStep + runStart, firstStep + runEnd, result, runStart);
+            }
+            runStart = runEnd + 1;
         }
-        return result.toString();
+        return result;
     }
 
     // Finds the pitch step just after this position.
@@ -238,4 +304,44 @@ public class PitchCurve {
         }
         return prevStep;
     }
+
+    /** A portamento and the note it belongs to. */
+    private static class NotePortamento {
+        private final int noteStartMs;
+        private final Portamento portamento;
+
+        NotePortamento(int noteStartMs, Portamento portamento) {
+            this.noteStartMs = noteStartMs;
+            this.portamento = portamento;
+        }
+    }
+
+    /** Section of the curve and note number that a pitch string was rendered for. */
+    private static class PitchStringKey {
+        private final int firstStep;
+        private final int lastStep;
+        private final int noteNum;
+
+        PitchStringKey(int firstStep, int lastStep, int noteNum) {
+            this.firstStep = firstStep;
+            this.lastStep = lastStep;
+            this.noteNum = noteNum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PitchStringKey)) {
+                return false;
+            }
+            PitchStringKey otherKey = (PitchStringKey) other;
+            return firstStep == otherKey.firstStep
+                    && lastStep == otherKey.lastStep
+                    && noteNum == otherKey.noteNum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(firstStep, lastStep, noteNum);
+        }
+    }
 }
@@ -3,4 +3,27 @@ package com.utsusynth.utsu.model.song.pitch;
 public interface PitchMutation {
 	/** Returns pitch value (in 1/10 of a semitone) for this position. */
 	double apply(int positionMs);
+
+	/**
+	 * Writes pitch values (in 1/10 of a semitone) for a run of pitch steps, which are 5 ms apart.
+	 *
+	 * @param firstStep First pitch step to write.
+	 * @param lastStep Last pitch step to write, inclusive.
+	 * @param result Array to write values into.
+	 * @param offset Index in result where the value for firstStep goes.
+	 */
+	void apply(int firstStep, int lastStep, double[] result, int offset);
+
+	/** Returns the first pitch step whose position is at or after positionMs. */
+	static int firstStepAtOrAfter(double positionMs) {
+		int step = (int) Math.ceil(positionMs / 5);
+		// Division can round either way, so check against the exact position.
+		while (step * 5 < positionMs) {
+			step++;
+		}
+		while ((step - 1) * 5 >= positionMs) {
+			step--;
+		}
+		return step;
+	}
 }
@@ -0,0 +1,67 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import java.util.Arrays;
+
+/**
+ * Builds pitch strings in the format resamplers read, reusing the same buffer for every string.
+ */
+class PitchStringEncoder {
+    private static final char[] DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private char[] buffer;
+    private int length;
+
+    PitchStringEncoder() {
+        buffer = new char[256];
+        length = 0;
+    }
+
+    /** Clears the buffer to start a new pitch string. */
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * For some reason, resamplers want two characters that represent a 12-bit number in two's
+     * complement form (-2048 to 2047). I would not be using this format if existing resamplers
+     * didn't require it.
+     *
+     * @param cents Pitch to write, in cents.
+     */
+    void appendPitch(int cents) {
+        // Convert out of two's complement form.
+        int value = cents < 0 ? cents + 4096 : cents;
+        // Make sure value is between 0 and 4095.
+        value = Math.max(0, Math.min(4095, value));
+        ensureCapacity(length + 2);
+        buffer[length++] = DIGITS[value >> 6];
+        buffer[length++] = DIGITS[value & 63];
+    }
+
+    /** Marks that the last pitch written is repeated the given number of times. */
+    void appendRepeats(int numRepeats) {
+        ensureCapacity(length + 12); // Enough for any int and two markers.
+        buffer[length++] = '#';
+        int numDigits = 1;
+        for (int remaining = numRepeats / 10; remaining > 0; remaining /= 10) {
+            numDigits++;
+        }
+        for (int i = numDigits - 1, remaining = numRepeats; i >= 0; i--, remaining /= 10) {
+            buffer[length + i] = (char) ('0' + remaining % 10);
+        }
+        length += numDigits;
+        buffer[length++] = '#';
+    }
+
+    /** Returns everything written since the last reset. */
+    String finish() {
+        return new String(buffer, 0, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Index of values that each cover a range of pitch steps. Segments are ordered by their first
+ * step, and the longest segment bounds how far back a search needs to look. Finding the segments
+ * that overlap a range of steps is O(log n) plus the number of segments that start within one
+ * longest-segment length before the range or inside it, so a single long segment makes every
+ * search scan further back. Pitchbends are short and sparse, which keeps that scan small.
+ */
+class SegmentIndex<T> {
+    private final TreeMap<Integer, List<Segment<T>>> segments; // Segments by first step.
+    private final TreeMap<Integer, Integer> lengthCounts; // Number of segments of each length.
+    private long numAdded; // Used to keep track of the order segments were added in.
+
+    SegmentIndex() {
+        segments = new TreeMap<>();
+        lengthCounts = new TreeMap<>();
+        numAdded = 0;
+    }
+
+    /** Creates an index with the same segments, which won't change when this index does. */
+    SegmentIndex<T> copy() {
+        SegmentIndex<T> copy = new SegmentIndex<>();
+        // Segments themselves are immutable, so only the lists that hold them are copied.
+        for (Map.Entry<Integer, List<Segment<T>>> entry : segments.entrySet()) {
+            copy.segments.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        copy.lengthCounts.putAll(lengthCounts);
+        copy.numAdded = numAdded;
+        return copy;
+    }
+
+    /** Adds a value that covers pitch steps firstStep to lastStep, inclusive. */
+    void add(int firstStep, int lastStep, T value) {
+        if (lastStep < firstStep) {
+            return; // Covers no pitch steps.
+        }
+        Segment<T> segment = new Segment<>(firstStep, lastStep, value, numAdded++);
+        segments.computeIfAbsent(firstStep, key -> new ArrayList<>()).add(segment);
+        lengthCounts.merge(segment.getLength(), 1, Integer::sum);
+    }
+
+    /** Removes any segments that overlap the given steps and match the given predicate. */
+    void remove(int firstStep, int lastStep, Predicate<T> shouldRemove) {
+        for (Segment<T> segment : getOverlapping(firstStep, lastStep)) {
+            if (!shouldRemove.test(segment.value)) {
+                continue;
+            }
+            List<Segment<T>> atStep = segments.get(segment.firstStep);
+            atStep.remove(segment);
+            if (atStep.isEmpty()) {
+                segments.remove(segment.firstStep);
+            }
+            lengthCounts.computeIfPresent(
+                    segment.getLength(), (length, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /** Finds all segments that cover at least one step from firstStep to lastStep, inclusive. */
+    List<Segment<T>> getOverlapping(int firstStep, int lastStep) {
+        List<Segment<T>> result = new ArrayList<>();
+        if (segments.isEmpty() || lastStep < firstStep) {
+            return result;
+        }
+        // No segment that starts earlier than this can reach firstStep. Segments that start
+        // after it but end before firstStep are still visited, and skipped below.
+        int searchStart = firstStep - lengthCounts.lastKey() + 1;
+        Iterator<Map.Entry<Integer, List<Segment<T>>>> entries =
+                segments.subMap(searchStart, true, lastStep, true).entrySet().iterator();
+        while (entries.hasNext()) {
+            for (Segment<T> segment : entries.next().getValue()) {
+                if (segment.lastStep >= firstStep) {
+                    result.add(segment);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** A value and the pitch steps it covers. */
+    static class Segment<T> {
+        private final int firstStep;
+        private final int lastStep;
+        private final T value;
+        private final long order; // Segments added earlier have a lower order.
+
+        private Segment(int firstStep, int lastStep, T value, long order) {
+            this.firstStep = firstStep;
+            this.lastStep = lastStep;
+            this.value = value;
+            this.order = order;
+        }
+
+        int getFirstStep() {
+            return firstStep;
+        }
+
+        int getLastStep() {
+            return lastStep;
+        }
+
+        T getValue() {
+            return value;
+        }
+
+        long getOrder() {
+            return order;
+        }
+
+        private int getLength() {
+            return lastStep - firstStep + 1;
+        }
+    }
+}
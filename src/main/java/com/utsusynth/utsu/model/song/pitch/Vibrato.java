@@ -61,4 +61,42 @@ class Vibrato implements PitchMutation {
             return 0;
         }
     }
+
+    @Override
+    public void apply(int firstStep, int lastStep, double[] result, int offset) {
+        // Find where each section starts once, instead of checking every step.
+        int phaseInStep = Math.max(firstStep, PitchMutation.firstStepAtOrAfter(startMs));
+        int mainStep = Math.max(phaseInStep, PitchMutation.firstStepAtOrAfter(startMs + phaseIn));
+        int phaseOutStep = Math.max(mainStep, PitchMutation.firstStepAtOrAfter(endMs - phaseOut));
+        int endStep = Math.max(phaseOutStep, PitchMutation.firstStepAtOrAfter(endMs));
+        int step = firstStep;
+        for (; step <= lastStep && step < phaseInStep; step++) {
+            result[offset + step - firstStep] = 0;
+        }
+        for (; step <= lastStep && step < mainStep; step++) {
+            int positionMs = step * 5;
+            double frequency = startFreq + freqSlope * (positionMs - startMs);
+            double incScale = Math.abs(positionMs - startMs) / phaseIn;
+            result[offset + step - firstStep] =
+                    amplitude * incScale * Math.sin((positionMs - startMs) * frequency - phase)
+                            + (pitchChange * incScale);
+        }
+        for (; step <= lastStep && step < phaseOutStep; step++) {
+            int positionMs = step * 5;
+            double frequency = startFreq + freqSlope * (positionMs - startMs);
+            result[offset + step - firstStep] =
+                    amplitude * Math.sin((positionMs - startMs) * frequency - phase) + pitchChange;
+        }
+        for (; step <= lastStep && step < endStep; step++) {
+            int positionMs = step * 5;
+            double frequency = startFreq + freqSlope * (positionMs - startMs);
+            double decScale = Math.abs(endMs - positionMs) / phaseOut;
+            result[offset + step - firstStep] =
+                    amplitude * decScale * Math.sin((positionMs - startMs) * frequency - phase)
+                            + (pitchChange * decScale);
+        }
+        for (; step <= lastStep; step++) {
+            result[offset + step - firstStep] = 0;
+        }
+    }
 }
@@ -39,6 +39,34 @@ class LogarithmicPortamento extends Portamento {
 		return pitch;
 	}
 
+	@Override
+	void applyWithin(int firstStep, int lastStep, double[] result, int offset) {
+		boolean rising = y2 > y1;
+		boolean falling = y1 > y2;
+		for (int step = firstStep; step <= lastStep; step++) {
+			double adjustedX = step * 5 - x1;
+			if (adjustedX == 0.0) {
+				result[offset + step - firstStep] = y1;
+				continue;
+			}
+			double pitch = (yStretch * Math.log(adjustedX * xStretch)) + constant + y1;
+			if ((rising && y1 > pitch) || (falling && pitch > y1)) {
+				pitch = y1;
+			}
+			result[offset + step - firstStep] = pitch;
+		}
+	}
+
+	@Override
+	double getStartMs() {
+		return x1;
+	}
+
+	@Override
+	double getEndMs() {
+		return x2;
+	}
+
 	@Override
 	public double getStartPitch() {
 		return y1;
@@ -31,6 +31,26 @@ class LogisticPortamento extends Portamento {
 		return maxY / (1 + Math.exp(-1 * steepness * (adjustedX - halfX))) + y1;
 	}
 
+	@Override
+	void applyWithin(int firstStep, int lastStep, double[] result, int offset) {
+		double exponentScale = -1 * steepness;
+		for (int step = firstStep; step <= lastStep; step++) {
+			double adjustedX = step * 5 - x1;
+			result[offset + step - firstStep] =
+					maxY / (1 + Math.exp(exponentScale * (adjustedX - halfX))) + y1;
+		}
+	}
+
+	@Override
+	double getStartMs() {
+		return x1;
+	}
+
+	@Override
+	double getEndMs() {
+		return x2;
+	}
+
 	@Override
 	public double getStartPitch() {
 		return y1;
@@ -8,4 +8,34 @@ public abstract class Portamento implements PitchMutation {
 
 	// Gets the last pitch in the portamento.
 	public abstract double getEndPitch();
+
+	// Gets the positions (in ms) where the portamento starts and ends.
+	abstract double getStartMs();
+
+	abstract double getEndMs();
+
+	// Writes values for a run of pitch steps that all lie within the portamento.
+	abstract void applyWithin(int firstStep, int lastStep, double[] result, int offset);
+
+	@Override
+	public void apply(int firstStep, int lastStep, double[] result, int offset) {
+		int firstWithin = Math.max(firstStep, PitchMutation.firstStepAtOrAfter(getStartMs()));
+		int endStep = PitchMutation.firstStepAtOrAfter(getEndMs());
+		int lastWithin = Math.min(lastStep, endStep * 5 > getEndMs() ? endStep - 1 : endStep);
+		if (firstWithin > lastWithin) {
+			// No step is within the portamento.
+			firstWithin = lastStep + 1;
+			lastWithin = lastStep;
+		}
+		// Steps outside the portamento go through apply(positionMs), which reports them.
+		for (int step = firstStep; step < firstWithin; step++) {
+			result[offset + step - firstStep] = apply(step * 5);
+		}
+		if (firstWithin <= lastWithin) {
+			applyWithin(firstWithin, lastWithin, result, offset + firstWithin - firstStep);
+		}
+		for (int step = lastWithin + 1; step <= lastStep; step++) {
+			result[offset + step - firstStep] = apply(step * 5);
+		}
+	}
 }
@@ -27,6 +27,24 @@ class QuadraticPortamento extends Portamento {
 		return slope * (adjustedX * adjustedX) + y1;
 	}
 
+	@Override
+	void applyWithin(int firstStep, int lastStep, double[] result, int offset) {
+		for (int step = firstStep; step <= lastStep; step++) {
+			double adjustedX = step * 5 - x1;
+			result[offset + step - firstStep] = slope * (adjustedX * adjustedX) + y1;
+		}
+	}
+
+	@Override
+	double getStartMs() {
+		return x1;
+	}
+
+	@Override
+	double getEndMs() {
+		return x2;
+	}
+
 	@Override
 	public double getStartPitch() {
 		return this.y1;
@@ -10,11 +10,16 @@ import java.util.Set;
  */
 public class DisjointLyricSet {
     private final Map<String, Set<String>> disjointSet;
+    private volatile long version; // Incremented whenever the contents change.
 
     public DisjointLyricSet() {
         disjointSet = new HashMap<>();
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public DisjointLyricSet addGroup(String... members) {
         if (members.length == 0) {
             return this;
@@ -28,6 +33,7 @@ public class DisjointLyricSet {
                 disjointSet.put(member, group);
             }
         }
+        version++;
         return this;
     }
 
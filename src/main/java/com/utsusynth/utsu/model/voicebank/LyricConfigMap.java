@@ -4,18 +4,30 @@ import java.util.*;
 
 /**
  * A map of lyric to LyricConfig where the values can be retrieved at any time in sorted order.
+ * Lookups by lyric only use the lyric index, while each category is only sorted the first time
+ * its configs are requested. Categories may be read from several threads at once, so they are
+ * only accessed while holding this map's lock.
  */
 public class LyricConfigMap {
     public static final String MAIN_CATEGORY = "Main";
 
-    private final SortedMap<String, SortedSet<LyricConfig>> configSets;
+    private final SortedSet<String> categories;
+    private final Map<String, List<LyricConfig>> unsortedConfigs; // Categories not yet requested.
+    private final Map<String, SortedSet<LyricConfig>> configSets;
     private final Map<String, LyricConfig> configMap;
+    private volatile long version; // Incremented whenever the contents change.
 
     public LyricConfigMap() {
-        configSets = new TreeMap<>();
+        categories = new TreeSet<>();
+        unsortedConfigs = new HashMap<>();
+        configSets = new HashMap<>();
         configMap = new HashMap<>();
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public boolean hasLyric(String lyric) {
         return configMap.containsKey(lyric);
     }
@@ -24,15 +36,21 @@ public class LyricConfigMap {
         return configMap.get(lyric);
     }
 
-    public Set<String> getCategories() {
-        return configSets.keySet();
+    public synchronized Set<String> getCategories() {
+        return Collections.unmodifiableSet(new TreeSet<>(categories));
     }
 
-    public Iterator<LyricConfig> getConfigs(String category) {
+    /** Gets a copy of a category's configs in sorted order, so later edits don't affect it. */
+    public synchronized Iterator<LyricConfig> getConfigs(String category) {
+        List<LyricConfig> unsorted = unsortedConfigs.remove(category);
+        if (unsorted != null) {
+            configSets.put(category, new TreeSet<>(unsorted));
+        }
         if (configSets.containsKey(category)) {
-            return configSets.get(category).iterator();
+            return Collections.unmodifiableList(
+                    new ArrayList<>(configSets.get(category))).iterator();
         }
-        return new TreeSet<LyricConfig>().iterator();
+        return Collections.emptyIterator();
     }
 
     /**
@@ -40,50 +58,54 @@ public class LyricConfigMap {
      *
      * @return whether a config was added.
      */
-    public boolean addConfig(LyricConfig config) {
+    public synchronized boolean addConfig(LyricConfig config) {
         if (configMap.containsKey(config.getTrueLyric())) {
             return false;
         }
-
-        // Add category if it doesn't already exist.
-        String category = config.getCategory();
-        if (!configSets.containsKey(category)) {
-            configSets.put(category, new TreeSet<>());
-        }
-        configSets.get(category).add(config);
+        addToCategory(config);
         configMap.put(config.getTrueLyric(), config);
+        version++;
         return true;
     }
 
     /**
      * Adds a lyric config, overwriting any existing ones with the same lyric.
      */
-    public void setConfig(LyricConfig config) {
+    public synchronized void setConfig(LyricConfig config) {
         if (configMap.containsKey(config.getTrueLyric())) {
-            LyricConfig oldConfig = configMap.get(config.getTrueLyric());
-            String oldCategory = oldConfig.getCategory();
-            if (configSets.containsKey(oldCategory)) {
-                configSets.get(oldCategory).remove(oldConfig);
-            }
+            removeFromCategory(configMap.get(config.getTrueLyric()));
+        }
+        addToCategory(config);
+        configMap.put(config.getTrueLyric(), config);
+        version++;
+    }
+
+    public synchronized void removeConfig(String lyric) {
+        if (configMap.containsKey(lyric)) {
+            removeFromCategory(configMap.get(lyric));
         }
+        configMap.remove(lyric);
+        version++;
+    }
 
+    private void addToCategory(LyricConfig config) {
         // Add category if it doesn't already exist.
         String category = config.getCategory();
-        if (!configSets.containsKey(category)) {
-            configSets.put(category, new TreeSet<>());
+        categories.add(category);
+        if (configSets.containsKey(category)) {
+            configSets.get(category).add(config);
+        } else {
+            unsortedConfigs.computeIfAbsent(category, key -> new ArrayList<>()).add(config);
         }
-        configSets.get(category).add(config);
-        configMap.put(config.getTrueLyric(), config);
     }
 
-    public void removeConfig(String lyric) {
-        if (configMap.containsKey(lyric)) {
-            LyricConfig toRemove = configMap.get(lyric);
-            String category = toRemove.getCategory();
-            if (configSets.containsKey(category)) {
-                configSets.get(category).remove(toRemove);
-            }
+    private void removeFromCategory(LyricConfig config) {
+        String category = config.getCategory();
+        if (configSets.containsKey(category)) {
+            configSets.get(category).remove(config);
+        } else if (unsortedConfigs.containsKey(category)) {
+            // Configs in the index are the same objects as the ones in each category.
+            unsortedConfigs.get(category).remove(config);
         }
-        configMap.remove(lyric);
     }
 }
@@ -10,6 +10,7 @@ public class PitchMap {
     private final ImmutableList<String> pitches;
     private final Map<String, String> prefixes;
     private final Map<String, String> suffixes;
+    private volatile long version; // Incremented whenever the contents change.
 
     public PitchMap() {
         prefixes = new HashMap<>();
@@ -23,6 +24,10 @@ public class PitchMap {
         pitches = pitchBuilder.build();
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public String getPrefix(String pitch) {
         if (prefixes.containsKey(pitch)) {
             return prefixes.get(pitch);
@@ -39,10 +44,12 @@ public class PitchMap {
 
     public void putPrefix(String pitch, String prefix) {
         prefixes.put(pitch, prefix);
+        version++;
     }
 
     public void putSuffix(String pitch, String suffix) {
         suffixes.put(pitch, suffix);
+        version++;
     }
 
     public Iterator<String> getOrderedPitches() {
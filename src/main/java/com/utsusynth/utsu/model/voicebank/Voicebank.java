@@ -8,19 +8,34 @@ import com.utsusynth.utsu.common.data.PitchMapData;
 import com.utsusynth.utsu.engine.FrqGenerator;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * In-code representation of a voice bank. Compatible with oto.ini files. TODO: Support oto_ini.txt
  * as well
  */
 public class Voicebank {
+    private static final long FRQ_BATCH_MS = 100; // How often frq statuses are passed on.
+
     // TODO: Once you have a VoicebankManager, consider sharing between voicebanks.
     private final DisjointLyricSet conversionSet;
     private final LyricConfigMap lyricConfigs;
     private final PitchMap pitchMap;
     private final Set<File> soundFiles;
     private final FrqGenerator frqGenerator;
+    private volatile AliasMemo aliasMemo; // Lyric configs that have already been resolved.
 
     private File pathToVoicebank; // Example: "/Library/Iona.utau/"
     private String name; // Example: "Iona"
@@ -137,7 +152,27 @@ public class Voicebank {
     }
 
     public Optional<LyricConfig> getLyricConfig(String prevLyric, String lyric, String pitch) {
-        String vcvPrefix = getVowel(prevLyric) + " "; // Most common VCV format.
+        // Results are memoized by lyric, pitch, and previous vowel. Only the first lookup of each
+        // combination searches through aliases, and later lookups don't allocate anything.
+        AliasMemo memo = getAliasMemo();
+        Character vowel = memo.vowels.get(prevLyric);
+        if (vowel == null) {
+            vowel = getVowel(prevLyric);
+            memo.vowels.put(prevLyric, vowel);
+        }
+        Map<Character, Optional<LyricConfig>> byVowel = memo.configs
+                .computeIfAbsent(lyric, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(pitch, key -> new ConcurrentHashMap<>());
+        Optional<LyricConfig> config = byVowel.get(vowel);
+        if (config == null) {
+            config = findLyricConfig(vowel, lyric, pitch);
+            byVowel.put(vowel, config);
+        }
+        return config;
+    }
+
+    private Optional<LyricConfig> findLyricConfig(char vowel, String lyric, String pitch) {
+        String vcvPrefix = vowel + " "; // Most common VCV format.
         String prefix = pitchMap.getPrefix(pitch); // Pitch prefix.
         String suffix = pitchMap.getSuffix(pitch); // Pitch suffix.
 
@@ -169,6 +204,19 @@ public class Voicebank {
         return Optional.empty();
     }
 
+    // Gets the memo of resolved lyric configs, starting a new one if the voicebank has changed.
+    private AliasMemo getAliasMemo() {
+        // Versions only increase, so their sum changes whenever any of them does.
+        long version =
+                lyricConfigs.getVersion() + pitchMap.getVersion() + conversionSet.getVersion();
+        AliasMemo memo = aliasMemo;
+        if (memo == null || memo.version != version) {
+            memo = new AliasMemo(version);
+            aliasMemo = memo;
+        }
+        return memo;
+    }
+
     // Finds the vowel sound of a lyric by converting to ASCII and taking the last character.
     private char getVowel(String prevLyric) {
         if (prevLyric.isEmpty()) {
@@ -284,34 +332,156 @@ public class Voicebank {
         pitchMap.putSuffix(data.getPitch(), data.getSuffix());
     }
 
-    private boolean generateFrq(File wavFile) {
+    private static File getFrqFile(File wavFile) {
         String wavName = wavFile.getName();
         String frqName = wavName.substring(0, wavName.length() - 4) + "_wav.frq";
-        File frqFile = wavFile.getParentFile().toPath().resolve(frqName).toFile();
-        frqGenerator.genFrqFile(wavFile, frqFile);
-        if (frqFile.canRead()) {
-            soundFiles.remove(frqFile); // Removes existing frq file, if present.
-            soundFiles.add(frqFile);
-            return true;
-        }
-        return false;
+        return wavFile.getParentFile().toPath().resolve(frqName).toFile();
+    }
+
+    /**
+     * Runs on a worker thread, so it should not touch the rest of the voicebank. The frq file is
+     * written to a temporary file first, so an existing frq file is only replaced by a complete
+     * one.
+     */
+    private boolean generateFrq(File wavFile, File frqFile, boolean replaceExisting) {
+        if (!replaceExisting && frqFile.lastModified() > wavFile.lastModified()) {
+            return frqFile.canRead(); // Frq file is already up to date.
+        }
+        File tempFile;
+        try {
+            tempFile = File.createTempFile("utsu", ".frq.tmp", frqFile.getParentFile());
+        } catch (IOException e) {
+            System.out.println("Warning: Failed to create temporary frq file.");
+            return false;
+        }
+        boolean succeeded = frqGenerator.genFrqFile(wavFile, tempFile)
+                && !Thread.currentThread().isInterrupted()
+                && tempFile.length() > 0;
+        if (succeeded) {
+            try {
+                Files.move(
+                        tempFile.toPath(),
+                        frqFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.out.println("Warning: Failed to replace frq file.");
+                succeeded = false;
+            }
+        }
+        if (!succeeded) {
+            tempFile.delete();
+        }
+        return succeeded;
     }
 
     /**
-     * Generates the specified frq files and updates each piece of data.
+     * Generates the specified frq files on a bounded pool of worker threads. Unless replacing
+     * existing files, wav files whose frq file is newer than them are skipped. Status changes are
+     * passed on in batches, and generation stops early if the calling thread is interrupted.
      */
-    public void generateFrqs(Iterator<LyricConfigData> dataIterator) {
-        while (dataIterator.hasNext()) {
-            LyricConfigData data = dataIterator.next();
+    public void generateFrqs(
+            List<LyricConfigData> dataList,
+            boolean replaceExisting,
+            Consumer<Map<LyricConfigData, FrqStatus>> onStatusChange) {
+        // Aliases often share a wav file, which only needs one frq file.
+        Map<File, List<LyricConfigData>> dataByWav = new LinkedHashMap<>();
+        Map<LyricConfigData, FrqStatus> batch = new LinkedHashMap<>();
+        for (LyricConfigData data : dataList) {
             if (data == null) {
                 continue;
             }
-            data.setFrqStatus(FrqStatus.LOADING);
-            if (generateFrq(data.getPathToFile())) {
-                data.setFrqStatus(FrqStatus.VALID);
-            } else {
-                data.setFrqStatus(FrqStatus.INVALID);
+            dataByWav.computeIfAbsent(data.getPathToFile(), key -> new ArrayList<>()).add(data);
+            batch.put(data, FrqStatus.LOADING);
+        }
+        if (dataByWav.isEmpty()) {
+            return;
+        }
+        onStatusChange.accept(batch);
+        batch = new LinkedHashMap<>();
+
+        int numThreads = Math.min(dataByWav.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "utsu-frq");
+            thread.setDaemon(true); // Don't keep the app open.
+            return thread;
+        });
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(pool);
+        Map<Future<Boolean>, File> wavFiles = new HashMap<>();
+        for (File wavFile : dataByWav.keySet()) {
+            File frqFile = getFrqFile(wavFile);
+            wavFiles.put(
+                    completionService.submit(
+                            () -> generateFrq(wavFile, frqFile, replaceExisting)),
+                    wavFile);
+        }
+
+        long lastBatchMs = System.currentTimeMillis();
+        try {
+            while (!dataByWav.isEmpty()) {
+                Future<Boolean> result =
+                        completionService.poll(FRQ_BATCH_MS, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    File wavFile = wavFiles.get(result);
+                    File frqFile = getFrqFile(wavFile);
+                    if (getFrqResult(result)) {
+                        soundFiles.remove(frqFile); // Removes existing frq file, if present.
+                        soundFiles.add(frqFile);
+                    }
+                    // A failed run leaves any existing frq file in place.
+                    FrqStatus status =
+                            soundFiles.contains(frqFile) ? FrqStatus.VALID : FrqStatus.INVALID;
+                    for (LyricConfigData data : dataByWav.remove(wavFile)) {
+                        batch.put(data, status);
+                    }
+                }
+                long curMs = System.currentTimeMillis();
+                if (!batch.isEmpty() && curMs - lastBatchMs >= FRQ_BATCH_MS) {
+                    onStatusChange.accept(batch);
+                    batch = new LinkedHashMap<>();
+                    lastBatchMs = curMs;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Generation was cancelled, so unfinished lyrics keep whatever frq file they had.
+            pool.shutdownNow();
+            awaitStopped(pool);
+            for (Map.Entry<File, List<LyricConfigData>> entry : dataByWav.entrySet()) {
+                FrqStatus status = soundFiles.contains(getFrqFile(entry.getKey()))
+                        ? FrqStatus.VALID : FrqStatus.INVALID;
+                for (LyricConfigData data : entry.getValue()) {
+                    batch.put(data, status);
+                }
             }
+            Thread.currentThread().interrupt(); // Let caller know it was interrupted.
+        } finally {
+            pool.shutdown();
+        }
+        if (!batch.isEmpty()) {
+            onStatusChange.accept(batch);
+        }
+    }
+
+    /** Waits for every worker to stop, so no frq file changes after statuses are final. */
+    private static void awaitStopped(ExecutorService pool) {
+        boolean wasInterrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(FRQ_BATCH_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                wasInterrupted = true; // Workers were already told to stop.
+            }
+        }
+        if (wasInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean getFrqResult(Future<Boolean> result) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            System.out.println("Warning: Failed to generate frq file.");
+            return false;
         }
     }
 
@@ -341,4 +511,21 @@ public class Voicebank {
         String result = "";
         return result + " " + pathToVoicebank + " " + name + " " + imageName;
     }
+
+    /**
+     * Lyric configs and vowels that were already resolved for a version of the voicebank. Safe to
+     * read and fill from multiple threads.
+     */
+    private static class AliasMemo {
+        private final long version;
+        private final Map<String, Character> vowels; // By lyric.
+        // By lyric, then pitch, then the previous note's vowel.
+        private final Map<String, Map<String, Map<Character, Optional<LyricConfig>>>> configs;
+
+        private AliasMemo(long version) {
+            this.version = version;
+            this.vowels = new ConcurrentHashMap<>();
+            this.configs = new ConcurrentHashMap<>();
+        }
+    }
 }
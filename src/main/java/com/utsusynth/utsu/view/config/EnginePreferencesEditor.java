@@ -27,11 +27,16 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
     private Label cacheLabel;
     private RadioButton cacheDisabled;
     private RadioButton cacheEnabled;
+    private Label streamingLabel;
+    private RadioButton streamingDisabled;
+    private RadioButton streamingEnabled;
     private Label defaultResamplerLabel;
     private File currentResampler;
     private Button changeResamplerButton;
     private Button resetResamplerButton;
     private Label defaultWavtoolLabel;
+    private RadioButton wavtoolExternal;
+    private RadioButton wavtoolBuiltIn;
     private File currentWavtool;
     private Button changeWavtoolButton;
     private Button resetWavtoolButton;
@@ -90,6 +95,25 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
                 cacheEnabled.setSelected(true);
         }
 
+        streamingLabel = new Label("Start playback while rendering");
+        streamingLabel.setWrapText(true);
+        streamingLabel.setMaxWidth(170);
+        GridPane.setValignment(streamingLabel, VPos.TOP);
+        ToggleGroup streamingGroup = new ToggleGroup();
+        VBox streamingVBox = new VBox(5);
+        streamingDisabled = new RadioButton("Disabled");
+        streamingDisabled.setToggleGroup(streamingGroup);
+        streamingEnabled = new RadioButton("Enabled");
+        streamingEnabled.setToggleGroup(streamingGroup);
+        streamingVBox.getChildren().addAll(streamingDisabled, streamingEnabled);
+        switch (preferencesManager.getStreaming()) {
+            case DISABLED:
+                streamingDisabled.setSelected(true);
+                break;
+            case ENABLED:
+                streamingEnabled.setSelected(true);
+        }
+
         defaultResamplerLabel = new Label("Default resampler");
         defaultResamplerLabel.setWrapText(true);
         defaultResamplerLabel.setMaxWidth(170);
@@ -121,6 +145,11 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
         defaultWavtoolLabel.setMaxWidth(170);
         GridPane.setValignment(defaultWavtoolLabel, VPos.TOP);
         VBox wavtoolVBox = new VBox(5);
+        ToggleGroup wavtoolGroup = new ToggleGroup();
+        wavtoolExternal = new RadioButton("External");
+        wavtoolExternal.setToggleGroup(wavtoolGroup);
+        wavtoolBuiltIn = new RadioButton("Built-in");
+        wavtoolBuiltIn.setToggleGroup(wavtoolGroup);
         TextField wavtoolName = new TextField();
         wavtoolName.setEditable(false);
         currentWavtool = preferencesManager.getWavtool();
@@ -140,7 +169,18 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
             wavtoolName.setText(currentWavtool.getName());
         });
         wavtoolHBox.getChildren().addAll(changeWavtoolButton, resetWavtoolButton);
-        wavtoolVBox.getChildren().addAll(wavtoolName, wavtoolHBox);
+        // External wavtool can only be changed when it's in use.
+        wavtoolName.disableProperty().bind(wavtoolBuiltIn.selectedProperty());
+        wavtoolHBox.disableProperty().bind(wavtoolBuiltIn.selectedProperty());
+        switch (preferencesManager.getWavtoolMode()) {
+            case EXTERNAL:
+                wavtoolExternal.setSelected(true);
+                break;
+            case BUILT_IN:
+                wavtoolBuiltIn.setSelected(true);
+        }
+        wavtoolVBox.getChildren().addAll(
+                wavtoolExternal, wavtoolName, wavtoolHBox, wavtoolBuiltIn);
 
         defaultVoicebankLabel = new Label("Default voicebank");
         defaultVoicebankLabel.setWrapText(true);
@@ -176,12 +216,14 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
         viewInternal.setVgap(10);
         viewInternal.add(cacheLabel, 0, 0);
         viewInternal.add(cacheVBox, 1, 0);
-        viewInternal.add(defaultResamplerLabel, 0, 1);
-        viewInternal.add(resamplerVBox, 1, 1);
-        viewInternal.add(defaultWavtoolLabel, 0, 2);
-        viewInternal.add(wavtoolVBox, 1, 2);
-        viewInternal.add(defaultVoicebankLabel, 0, 3);
-        viewInternal.add(voicebankVBox, 1, 3);
+        viewInternal.add(streamingLabel, 0, 1);
+        viewInternal.add(streamingVBox, 1, 1);
+        viewInternal.add(defaultResamplerLabel, 0, 2);
+        viewInternal.add(resamplerVBox, 1, 2);
+        viewInternal.add(defaultWavtoolLabel, 0, 3);
+        viewInternal.add(wavtoolVBox, 1, 3);
+        viewInternal.add(defaultVoicebankLabel, 0, 4);
+        viewInternal.add(voicebankVBox, 1, 4);
 
         localizer.localize(this);
         return viewInternal;
@@ -192,10 +234,15 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
         cacheLabel.setText(bundle.getString("preferences.engine.cacheRenderOutput"));
         cacheDisabled.setText(bundle.getString("preferences.disabled"));
         cacheEnabled.setText(bundle.getString("preferences.enabled"));
+        streamingLabel.setText(bundle.getString("preferences.engine.streamingPlayback"));
+        streamingDisabled.setText(bundle.getString("preferences.disabled"));
+        streamingEnabled.setText(bundle.getString("preferences.enabled"));
         defaultResamplerLabel.setText(bundle.getString("preferences.engine.defaultResampler"));
         changeResamplerButton.setText(bundle.getString("properties.change"));
         resetResamplerButton.setText(bundle.getString("general.reset"));
         defaultWavtoolLabel.setText(bundle.getString("preferences.engine.defaultWavtool"));
+        wavtoolExternal.setText(bundle.getString("preferences.engine.externalWavtool"));
+        wavtoolBuiltIn.setText(bundle.getString("preferences.engine.builtInWavtool"));
         changeWavtoolButton.setText(bundle.getString("properties.change"));
         resetWavtoolButton.setText(bundle.getString("general.reset"));
         defaultVoicebankLabel.setText(bundle.getString("preferences.engine.defaultVoicebank"));
@@ -215,8 +262,18 @@ public class EnginePreferencesEditor extends PreferencesEditor implements Locali
         } else if (cacheEnabled.isSelected()) {
             preferencesManager.setCache(PreferencesManager.CacheMode.ENABLED);
         }
+        if (streamingDisabled.isSelected()) {
+            preferencesManager.setStreaming(PreferencesManager.StreamingMode.DISABLED);
+        } else if (streamingEnabled.isSelected()) {
+            preferencesManager.setStreaming(PreferencesManager.StreamingMode.ENABLED);
+        }
         preferencesManager.setResampler(currentResampler);
         preferencesManager.setWavtool(currentWavtool);
+        if (wavtoolExternal.isSelected()) {
+            preferencesManager.setWavtoolMode(PreferencesManager.WavtoolMode.EXTERNAL);
+        } else if (wavtoolBuiltIn.isSelected()) {
+            preferencesManager.setWavtoolMode(PreferencesManager.WavtoolMode.BUILT_IN);
+        }
         preferencesManager.setVoicebank(voicebankContainer.getLocation());
     }
 
@@ -29,6 +29,18 @@ public interface SongCallback {
      */
     NoteUpdateData modifyNote(NoteData toModify);
 
+    /**
+     * Removes and adds notes in a single edit, then standardizes every note the edit affected.
+     * Returns frontend updates for those notes.
+     */
+    MutateResponse editNotes(Set<Integer> positionsToRemove, List<NoteData> notesToAdd);
+
+    /**
+     * Moves notes in time and pitch without removing and re-adding them, then standardizes them.
+     * Returns frontend updates for the moved notes.
+     */
+    MutateResponse shiftNotes(Set<Integer> positions, int positionDelta, int noteNumDelta);
+
     /**
      * Standardizes a section of notes and returns any frontend updates.
      */
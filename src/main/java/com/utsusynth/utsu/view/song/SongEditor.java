@@ -38,6 +38,7 @@ import javafx.util.Duration;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 public class SongEditor {
     private final Track track;
@@ -174,10 +175,21 @@ public class SongEditor {
         return track.getNoteTrack();
     }
 
-    /** Add new notes to the view from the controller. */
-    public void addNotesFromController(int firstPosition, int lastPosition, List<NoteData> notes) {
-        addNotes(notes);
-        refreshNotes(firstPosition, lastPosition);
+    /**
+     * Add new notes to the view from the controller.
+     *
+     * @param updates Updates from standardizing the song after the notes were added to it.
+     */
+    public void addNotesFromController(List<NoteData> notes, MutateResponse updates) {
+        if (!notes.isEmpty()) {
+            addNotes(notes);
+        }
+        refreshNotes(updates);
+    }
+
+    /** Shows updates to notes that the controller has already standardized. */
+    public void refreshNotesFromController(MutateResponse updates) {
+        refreshNotes(updates);
     }
 
     private void addNotes(List<NoteData> notes) {
@@ -216,15 +228,18 @@ public class SongEditor {
         }
     }
 
-    /** Called by controller, deletes notes from the view. */
+    /**
+     * Called by controller, deletes notes from the view. The controller is responsible for
+     * deleting them from the song.
+     */
     public void deleteNotesFromController(List<NoteData> notes) {
-        List<Note> displayedNotes = new ArrayList<>();
         for (NoteData note : notes) {
             if (noteMap.hasNote(note.getPosition())) {
-                displayedNotes.add(noteMap.getNote(note.getPosition()));
+                Note displayedNote = noteMap.getNote(note.getPosition());
+                noteMap.removeFullNote(note.getPosition());
+                noteMap.removeNoteElement(displayedNote);
             }
         }
-        deleteNotes(displayedNotes);
     }
 
     public ListView<TrackItemSet> getDynamicsElement() {
@@ -232,9 +247,10 @@ public class SongEditor {
     }
 
     /**
-     * Start the playback bar animation. It will end on its own.
+     * Start the playback bar animation. It will follow the audio clock and end on its own.
      */
-    public void startPlayback(RegionBounds rendered, Duration duration) {
+    public void startPlayback(
+            RegionBounds rendered, Duration duration, Supplier<Duration> audioClock) {
         int firstPosition = noteMap.getFirstPosition(rendered);
         int lastPosition = noteMap.getLastPosition(rendered);
         if (!noteMap.hasNote(firstPosition) || !noteMap.hasNote(lastPosition)) {
@@ -244,7 +260,7 @@ public class SongEditor {
         int renderStart = Math.min(firstNoteStart, rendered.getMinMs());
         int renderEnd = lastPosition + noteMap.getNote(lastPosition).getDurationMs();
         DoubleProperty playbackX = playbackManager.startPlayback(
-                duration, new RegionBounds(renderStart, renderEnd));
+                duration, new RegionBounds(renderStart, renderEnd), audioClock);
         track.startPlaybackAutoscroll(playbackX);
     }
 
@@ -269,6 +285,13 @@ public class SongEditor {
         playbackManager.stopPlayback();
     }
 
+    /**
+     * Ends the playback bar animation and removes the bar, for when audio plays to the end.
+     */
+    public void finishPlayback() {
+        playbackManager.finishPlayback();
+    }
+
     public double getWidthX() {
         double measureWidth = 4 * scaler.scaleX(Quantizer.COL_WIDTH);
         return measureWidth * (track.getNumMeasures() + 1); // Include pre-roll.
@@ -439,7 +462,10 @@ public class SongEditor {
     }
 
     private void refreshNotes(int firstPosition, int lastPosition) {
-        MutateResponse standardizeResponse = model.standardizeNotes(firstPosition, lastPosition);
+        refreshNotes(model.standardizeNotes(firstPosition, lastPosition));
+    }
+
+    private void refreshNotes(MutateResponse standardizeResponse) {
         String prevPitch = "";
         Note prevNote = null;
         if (standardizeResponse.getPrev().isPresent()) {
@@ -504,9 +530,12 @@ public class SongEditor {
     }
 
     private void moveNotes(List<Note> notes, int positionDelta, int rowDelta) {
+        boolean allValid = notes.stream().allMatch(Note::isValid);
         Set<Integer> positionsToRemove = notes.stream().filter(Note::isValid)
                 .map(Note::getAbsPositionMs).collect(Collectors.toSet());
-        RegionBounds toStandardize = removeNotes(positionsToRemove);
+        for (int position : positionsToRemove) {
+            noteMap.removeFullNote(position);
+        }
 
         LinkedList<NoteData> toAdd = new LinkedList<>();
         for (Note curNote : notes) {
@@ -520,18 +549,14 @@ public class SongEditor {
             }
             toAdd.add(curNote.getNoteData());
         }
-        // Standardize and return early if nothing needs to be added.
-        if (toAdd.isEmpty()) {
-            if (!toStandardize.equals(RegionBounds.INVALID)) {
-                refreshNotes(toStandardize.getMinMs(), toStandardize.getMaxMs());
-            }
+        if (allValid && toAdd.size() == notes.size()) {
+            // Every note is still in the song, so move them without removing them. Rows count
+            // down from the highest pitch.
+            refreshNotes(model.shiftNotes(positionsToRemove, positionDelta, -rowDelta));
             return;
         }
-        model.addNotes(toAdd);
-        RegionBounds addRegion =
-                new RegionBounds(toAdd.getFirst().getPosition(), toAdd.getLast().getPosition());
-        toStandardize = toStandardize.mergeWith(addRegion);
-        refreshNotes(toStandardize.getMinMs(), toStandardize.getMaxMs());
+        // Remove and re-add notes in one edit, so each affected note is standardized once.
+        refreshNotes(model.editNotes(positionsToRemove, toAdd));
     }
 
     public Optional<Integer> getFocusNote() {
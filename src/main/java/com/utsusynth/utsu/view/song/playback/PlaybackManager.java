@@ -2,6 +2,7 @@ package com.utsusynth.utsu.view.song.playback;
 
 import java.util.Collection;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
@@ -11,8 +12,7 @@ import com.utsusynth.utsu.common.quantize.Scaler;
 import com.utsusynth.utsu.common.utils.PitchUtils;
 import com.utsusynth.utsu.common.utils.RoundUtils;
 import com.utsusynth.utsu.view.song.note.Note;
-import javafx.animation.*;
-import javafx.animation.Animation.Status;
+import javafx.animation.AnimationTimer;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -26,7 +26,9 @@ public class PlaybackManager {
     private final Scaler scaler;
     private final TreeSet<Note> highlighted; // All highlighted notes.
     private final BooleanProperty isAnythingHighlighted;
-    private final Timeline playback;
+    private AnimationTimer playback;
+    private boolean isPlaying;
+    private boolean isPaused;
 
     private final StartBar startBar;
     private final EndBar endBar;
@@ -44,7 +46,14 @@ public class PlaybackManager {
         this.scaler = scaler;
         highlighted = new TreeSet<>();
         isAnythingHighlighted = new SimpleBooleanProperty(false);
-        playback = new Timeline();
+        playback = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                // No playback yet.
+            }
+        };
+        isPlaying = false;
+        isPaused = false;
         clear();
     }
 
@@ -57,26 +66,39 @@ public class PlaybackManager {
     }
 
     /**
-     * Sends the playback bar across the part of the song that plays.
+     * Sends the playback bar across the part of the song that plays, following the audio clock.
      *
+     * @param duration Expected length of the audio.
+     * @param audioClock How much of the audio has been played so far.
      * @return A double binding of the playback bar's current x-value.
      */
-    public DoubleProperty startPlayback(Duration duration, RegionBounds playRegion) {
+    public DoubleProperty startPlayback(
+            Duration duration, RegionBounds playRegion, Supplier<Duration> audioClock) {
         if (callback != null && duration != Duration.UNKNOWN && duration != Duration.INDEFINITE) {
             playBar.clearListeners();
             playBar.setX(scaler.scalePos(playRegion.getMinMs()));
             callback.setBar(playBar);
 
             playback.stop();
-            playback.getKeyFrames().clear();
+            double startX = scaler.scalePos(playRegion.getMinMs());
             double finalX = scaler.scalePos(playRegion.getMaxMs());
-            playback.getKeyFrames().add(
-                    new KeyFrame(duration, new KeyValue(playBar.xProperty(), finalX)));
-            playback.play();
-            playback.setOnFinished(event -> callback.removeBar(playBar));
+            playback = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    // Duration is only an estimate, so the bar waits at the end of the region
+                    // until finishPlayback is called.
+                    double progress = duration.greaterThan(Duration.ZERO)
+                            ? Math.min(1, audioClock.get().toMillis() / duration.toMillis()) : 1;
+                    // Never move backwards, in case the clock resets when audio ends.
+                    double newX = startX + (finalX - startX) * progress;
+                    playBar.setX(Math.max(playBar.xProperty().get(), newX));
+                }
+            };
+            isPlaying = true;
+            playback.start();
 
             playBar.xProperty().addListener((obs, oldValue, newValue) -> {
-                if (callback != null && playback.getStatus() == Status.RUNNING) {
+                if (callback != null && isPlaying) {
                     callback.readjust(playBar);
                 }
             });
@@ -87,18 +109,32 @@ public class PlaybackManager {
     }
 
     public void pausePlayback() {
-        playback.pause(); // Does nothing if animation not playing.
+        if (isPlaying) {
+            playback.stop(); // Bar stays in place until audio resumes.
+            isPaused = true;
+        }
     }
 
     public void resumePlayback() {
-        if (playback.getStatus() == Status.PAUSED) {
-            playback.play(); // Does nothing if animation not paused.
+        if (isPaused) {
+            isPaused = false;
+            playback.start();
         }
     }
 
-    // Removes the playback bar.
+    // Stops the playback bar where it is.
     public void stopPlayback() {
         playback.stop();
+        isPlaying = false;
+        isPaused = false;
+    }
+
+    // Removes the playback bar once audio has played to the end.
+    public void finishPlayback() {
+        stopPlayback();
+        if (callback != null) {
+            callback.removeBar(playBar);
+        }
     }
 
     /**
@@ -183,7 +219,7 @@ public class PlaybackManager {
     }
 
     public void clear() {
-        playback.stop(); // Stop any ongoing playback.
+        stopPlayback(); // Stop any ongoing playback.
         bars = new Group();
         clearHighlights();
     }
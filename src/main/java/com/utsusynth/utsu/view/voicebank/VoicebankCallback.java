@@ -22,7 +22,15 @@ public interface VoicebankCallback {
 
     void modifyLyric(LyricConfigData lyricData);
 
-    void generateFrqFiles(Iterator<LyricConfigData> configData);
+    /**
+     * Generates frq files for the given lyrics in the background.
+     *
+     * @param replaceExisting Whether to regenerate frq files that are already up to date.
+     */
+    void generateFrqFiles(Iterator<LyricConfigData> configData, boolean replaceExisting);
+
+    /** Stops generating frq files, leaving files that weren't reached yet as they were. */
+    void stopGeneratingFrqFiles();
 
     /** Records an action so it can be undone or redone later. */
     void recordAction(Runnable redoAction, Runnable undoAction);
@@ -55,7 +55,8 @@ public class VoicebankEditor implements Localizable {
             return table;
         }
 
-        // Create tabs to open other categories.
+        // Create tabs to open other categories. A category's lyrics are only loaded once its tab
+        // is first selected.
         for (String category : categories) {
             Tab tab = new Tab(category);
             tab.setOnSelectionChanged(event -> {
@@ -63,6 +64,7 @@ public class VoicebankEditor implements Localizable {
                     // Generate new tab if not already present.
                     if (tab.getContent() == null) {
                         tab.setContent(newTable(category, model.getLyricData(category)));
+                        localizer.localize(this); // Translate the new table's columns.
                     }
                 }
             });
@@ -130,7 +132,8 @@ public class VoicebankEditor implements Localizable {
             genFrqItem.setOnAction(event -> {
                 File wavFile = row.getItem().getPathToFile();
                 model.generateFrqFiles(
-                        lyrics.filtered(data -> data.getPathToFile().equals(wavFile)).iterator());
+                        lyrics.filtered(data -> data.getPathToFile().equals(wavFile)).iterator(),
+                        true);
             });
             MenuItem deleteItem = new MenuItem("Delete");
             deleteItem.setOnAction(event -> {
@@ -237,14 +240,19 @@ public class VoicebankEditor implements Localizable {
                     lyrics.filtered(
                             data -> !data.frqStatusProperty().get()
                                     .equals(FrqStatus.VALID.toString()))
-                            .iterator());
+                            .iterator(),
+                    false);
         });
         MenuItem regenerateAllFrqItem = new MenuItem("Replace all .frq Files");
-        regenerateAllFrqItem.setOnAction(event -> model.generateFrqFiles(lyrics.iterator()));
-        contextMenu.getItems().addAll(generateAllFrqItem, regenerateAllFrqItem);
+        regenerateAllFrqItem.setOnAction(
+                event -> model.generateFrqFiles(lyrics.iterator(), true));
+        MenuItem stopFrqItem = new MenuItem("Stop Generating .frq Files");
+        stopFrqItem.setOnAction(event -> model.stopGeneratingFrqFiles());
+        contextMenu.getItems().addAll(generateAllFrqItem, regenerateAllFrqItem, stopFrqItem);
         contextMenu.setOnShowing(event -> {
             generateAllFrqItem.setText(localizer.getMessage("voice.generateMissingFrqFiles"));
             regenerateAllFrqItem.setText(localizer.getMessage("voice.regenerateFrqFiles"));
+            stopFrqItem.setText(localizer.getMessage("voice.stopGeneratingFrqFiles"));
         });
         col.setContextMenu(contextMenu);
         return col;
@@ -0,0 +1,107 @@
+package com.utsusynth.utsu.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.engine.RenderedRegion.PhraseRecord;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link RenderedRegion}. */
+public class RenderedRegionTest {
+  private static final RegionBounds BOUNDS = new RegionBounds(0, 1920);
+  private static final double[] POSITIONS_MS = {0, 50, 200};
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void patchMatchesSplicingFromScratch() throws IOException {
+    File first = writeWav("first.wav", 4410, 1);
+    File second = writeWav("second.wav", 4410, 2);
+    File third = writeWav("third.wav", 4410, 3);
+    File changed = writeWav("changed.wav", 4410, 4);
+    File output = tempDir.resolve("output.wav").toFile();
+    splice(output, first, second, third);
+    RenderedRegion region = new RenderedRegion(
+        BOUNDS, output, records(new String[] {"1", "2", "3"}, first, second, third));
+
+    // Only the middle phrase changed, and it overlaps the first one.
+    List<PhraseRecord> newRecords =
+        records(new String[] {"1", "4", "3"}, first, changed, third);
+    Optional<RenderedRegion> patched = region.patch(BOUNDS, newRecords);
+    File expected = tempDir.resolve("expected.wav").toFile();
+    splice(expected, first, changed, third);
+
+    assertTrue(patched.isPresent());
+    assertEquals(output, patched.get().getOutputFile());
+    assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(output.toPath()));
+  }
+
+  @Test
+  public void doesNotPatchIfLengthChanges() throws IOException {
+    File first = writeWav("first.wav", 4410, 1);
+    File second = writeWav("second.wav", 4410, 2);
+    File third = writeWav("third.wav", 4410, 3);
+    File longer = writeWav("longer.wav", 8820, 4);
+    File output = tempDir.resolve("output.wav").toFile();
+    splice(output, first, second, third);
+    byte[] before = Files.readAllBytes(output.toPath());
+    RenderedRegion region = new RenderedRegion(
+        BOUNDS, output, records(new String[] {"1", "2", "3"}, first, second, third));
+
+    List<PhraseRecord> newRecords = records(new String[] {"1", "2", "4"}, first, second, longer);
+
+    assertEquals(Optional.empty(), region.patch(BOUNDS, newRecords));
+    assertEquals(Optional.empty(), region.patch(new RegionBounds(0, 960), newRecords));
+    assertArrayEquals(before, Files.readAllBytes(output.toPath()));
+  }
+
+  // Splices phrases together the same way the engine does for a full render.
+  private static void splice(File output, File... phrases) {
+    BuiltInWavtool splicer = new BuiltInWavtool();
+    splicer.startRender();
+    for (int i = 0; i < phrases.length; i++) {
+      splicer.addWav(phrases[i], POSITIONS_MS[i]);
+    }
+    splicer.finishRender(output);
+  }
+
+  private static List<PhraseRecord> records(String[] keys, File... phrases) {
+    List<PhraseRecord> records = new ArrayList<>();
+    for (int i = 0; i < phrases.length; i++) {
+      records.add(PhraseRecord.create(keys[i], phrases[i], POSITIONS_MS[i]).get());
+    }
+    return records;
+  }
+
+  private File writeWav(String name, int numSamples, int seed) throws IOException {
+    byte[] bytes = new byte[numSamples * 2];
+    for (int i = 0; i < numSamples; i++) {
+      int sample = (int) (8000 * Math.sin(i * 0.01 * seed));
+      bytes[i * 2] = (byte) (sample & 0xff);
+      bytes[i * 2 + 1] = (byte) ((sample >> 8) & 0xff);
+    }
+    File file = tempDir.resolve(name).toFile();
+    AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+    try (AudioInputStream input =
+        new AudioInputStream(new ByteArrayInputStream(bytes), format, numSamples)) {
+      AudioSystem.write(input, AudioFileFormat.Type.WAVE, file);
+    }
+    return file;
+  }
+}
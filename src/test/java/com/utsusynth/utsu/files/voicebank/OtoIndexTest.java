@@ -0,0 +1,138 @@
+package com.utsusynth.utsu.files.voicebank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link OtoIndex}. */
+public class OtoIndexTest {
+  @TempDir
+  Path tempDir;
+
+  private File voicebankDir;
+  private File frqDir;
+  private File otoFile;
+  private File indexFile;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    voicebankDir = Files.createDirectory(tempDir.resolve("voicebank")).toFile();
+    frqDir = Files.createDirectory(voicebankDir.toPath().resolve("C3")).toFile();
+    otoFile = frqDir.toPath().resolve("oto.ini").toFile();
+    Files.write(otoFile.toPath(), "de.wav=de,1,2,3,4,5".getBytes(StandardCharsets.UTF_8));
+    // Kept outside the voicebank, as the cache is, so writing it doesn't change any mtimes.
+    indexFile = tempDir.resolve("index.bin").toFile();
+  }
+
+  @Test
+  public void roundTripsEntries() {
+    OtoIndex index = new OtoIndex(voicebankDir);
+    index.put(otoFile, parse(otoFile));
+    index.write(indexFile);
+
+    Optional<OtoIndex.OtoFile> read = OtoIndex.read(indexFile, voicebankDir).getIfCurrent(otoFile);
+    assertTrue(read.isPresent(), "Reading unchanged oto file from index");
+    List<OtoIndex.OtoEntry> entries = read.get().getEntries();
+    assertEquals(2, entries.size());
+    assertEntry(entries.get(0), "- de", "C3/de.wav", new double[] {1, 2.5, -3, 4, 5}, true);
+    assertEntry(entries.get(1), "あ", "C3/a.wav", new double[] {0, 0, 0, 0, 0}, false);
+  }
+
+  @Test
+  public void changedOtoFileIsNotCurrent() throws IOException {
+    OtoIndex index = new OtoIndex(voicebankDir);
+    index.put(otoFile, parse(otoFile));
+    index.write(indexFile);
+
+    Files.write(otoFile.toPath(), "a.wav=a,0,0,0,0,0".getBytes(StandardCharsets.UTF_8));
+    assertTrue(otoFile.setLastModified(otoFile.lastModified() + 2000));
+    assertFalse(OtoIndex.read(indexFile, voicebankDir).getIfCurrent(otoFile).isPresent());
+  }
+
+  @Test
+  public void changedFrqFolderIsNotCurrent() {
+    OtoIndex index = new OtoIndex(voicebankDir);
+    index.put(otoFile, parse(otoFile));
+    index.write(indexFile);
+
+    // Adding or removing an frq file changes the folder's mtime.
+    assertTrue(frqDir.setLastModified(frqDir.lastModified() + 2000));
+    assertFalse(OtoIndex.read(indexFile, voicebankDir).getIfCurrent(otoFile).isPresent());
+  }
+
+  @Test
+  public void indexOfAnotherVoicebankIsIgnored() throws IOException {
+    OtoIndex index = new OtoIndex(voicebankDir);
+    index.put(otoFile, parse(otoFile));
+    index.write(indexFile);
+
+    File otherVoicebank = Files.createDirectory(tempDir.resolve("other")).toFile();
+    assertFalse(OtoIndex.read(indexFile, otherVoicebank).getIfCurrent(otoFile).isPresent());
+  }
+
+  @Test
+  public void unreadableIndexIsEmpty() throws IOException {
+    Files.write(indexFile.toPath(), new byte[] {0, 0, 0, 1, 0, 42});
+    assertFalse(OtoIndex.read(indexFile, voicebankDir).getIfCurrent(otoFile).isPresent());
+    assertFalse(OtoIndex.read(new File(tempDir.toFile(), "missing.bin"), voicebankDir)
+            .getIfCurrent(otoFile).isPresent());
+  }
+
+  @Test
+  public void writeLeavesNoTempFiles() {
+    OtoIndex index = new OtoIndex(voicebankDir);
+    index.put(otoFile, parse(otoFile));
+    index.write(indexFile);
+    index.write(indexFile);
+
+    String[] names = tempDir.toFile().list((dir, name) -> name.endsWith(".tmp"));
+    assertEquals(0, names.length, "Temporary index files left behind");
+  }
+
+  // Stands in for the parsed contents of an oto file.
+  private OtoIndex.OtoFile parse(File oto) {
+    return new OtoIndex.OtoFile(
+            oto.lastModified(),
+            oto.length(),
+            ImmutableMap.of(frqDir, frqDir.lastModified()),
+            ImmutableList.of(
+                    new OtoIndex.OtoEntry(
+                            new LyricConfig(voicebankDir, "- de", "C3/de.wav", 1, 2.5, -3, 4, 5),
+                            true),
+                    new OtoIndex.OtoEntry(
+                            new LyricConfig(voicebankDir, "あ", "C3/a.wav", 0, 0, 0, 0, 0),
+                            false)));
+  }
+
+  private void assertEntry(
+          OtoIndex.OtoEntry entry,
+          String trueLyric,
+          String fileName,
+          double[] configValues,
+          boolean hasFrq) {
+    LyricConfig config = entry.getConfig();
+    assertEquals(trueLyric, config.getTrueLyric());
+    assertEquals(fileName, config.getFilename());
+    assertEquals(new File(voicebankDir, fileName), config.getPathToFile());
+    assertEquals(configValues[0], config.getOffset());
+    assertEquals(configValues[1], config.getConsonant());
+    assertEquals(configValues[2], config.getCutoff());
+    assertEquals(configValues[3], config.getPreutterance());
+    assertEquals(configValues[4], config.getOverlap());
+    assertEquals(hasFrq, entry.hasFrq());
+  }
+}
@@ -0,0 +1,137 @@
+package com.utsusynth.utsu.model.song;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.common.exception.NoteAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link NoteList}. */
+public class NoteListTest {
+  @Test
+  public void findsNotesByPosition() throws NoteAlreadyExistsException {
+    NoteList noteList = makeNoteList(480, 0, 960, 1440, 2400);
+
+    assertEquals(5, noteList.getSize());
+    assertEquals(480, noteList.getNote(960).getNote().getDelta());
+    assertNull(noteList.getNote(100), "Looking up a position with no note");
+    assertEquals(Optional.of(0), noteList.getPositionAtOrAfter(0));
+    assertEquals(Optional.of(960), noteList.getPositionAtOrAfter(500));
+    assertEquals(Optional.of(2400), noteList.getPositionAtOrAfter(2400));
+    assertEquals(Optional.empty(), noteList.getPositionAtOrAfter(2401));
+    assertEquals(Optional.empty(), noteList.getPositionBefore(0));
+    assertEquals(Optional.of(480), noteList.getPositionBefore(960));
+    assertEquals(Optional.of(2400), noteList.getPositionBefore(5000));
+    assertEquals(0, noteList.getNumNotesBefore(0));
+    assertEquals(3, noteList.getNumNotesBefore(1440));
+    assertEquals(5, noteList.getNumNotesBefore(2401));
+  }
+
+  @Test
+  public void keepsLookupsInSyncWithLinks() throws NoteAlreadyExistsException {
+    NoteList noteList = makeNoteList(0, 480, 960, 1440);
+    // Every lookup should find the same node as walking the list from the head.
+    assertLookupsMatchLinks(noteList);
+
+    noteList.removeNote(0);
+    noteList.removeNote(960);
+    assertLookupsMatchLinks(noteList);
+    assertEquals(Optional.of(480), noteList.getPositionAtOrAfter(0));
+
+    noteList.insertNote(makeNote(240), 240);
+    noteList.insertNote(makeNote(2000), 2000);
+    assertLookupsMatchLinks(noteList);
+
+    noteList.shiftNotes(480, 1440, 120);
+    assertLookupsMatchLinks(noteList);
+    assertEquals(Optional.of(600), noteList.getPositionAtOrAfter(241));
+    assertEquals(360, noteList.getNote(240).getNote().getLength());
+  }
+
+  @Test
+  public void boundedIteratorMatchesFullIteration() throws NoteAlreadyExistsException {
+    NoteList noteList = makeNoteList(0, 480, 1200, 1680, 3000, 3240);
+    int[][] regions = {
+        {0, 0}, {0, 100}, {100, 700}, {479, 481}, {960, 1199}, {1300, 2900}, {2999, 3000},
+        {3500, 10000}, {10000, 20000}, {0, Integer.MAX_VALUE}};
+    for (int[] region : regions) {
+      RegionBounds bounds = new RegionBounds(region[0], region[1]);
+      List<Integer> expected = new ArrayList<>();
+      NoteIterator all = noteList.iterator();
+      while (all.hasNext()) {
+        Note note = all.next();
+        int position = all.getCurDelta();
+        if (bounds.intersects(position, position + note.getDuration())) {
+          expected.add(position);
+        }
+      }
+      assertEquals(
+          expected,
+          positions(noteList.boundedIterator(bounds)),
+          "Iterating from " + region[0] + " to " + region[1]);
+    }
+  }
+
+  @Test
+  public void boundedIteratorCountsEarlierNotes() throws NoteAlreadyExistsException {
+    NoteList noteList = makeNoteList(0, 480, 960, 1440);
+    NoteIterator iterator = noteList.boundedIterator(new RegionBounds(900, 1000));
+    assertEquals(2, iterator.getCurIndex());
+    iterator.next();
+    assertEquals(960, iterator.getCurDelta());
+    assertEquals(Optional.of(noteList.getNote(480).getNote()), iterator.peekPrev());
+    assertEquals(3, iterator.getCurIndex());
+  }
+
+  private static NoteList makeNoteList(int... positions) throws NoteAlreadyExistsException {
+    NoteList noteList = new NoteList();
+    for (int position : positions) {
+      noteList.insertNote(makeNote(position), position);
+    }
+    return noteList;
+  }
+
+  private static Note makeNote(int position) {
+    // Set up the same way Song does before inserting a note.
+    Note note = new Note();
+    note.setDelta(position);
+    note.safeSetDuration(240);
+    note.safeSetLength(240);
+    note.setNoteNum(60);
+    return note;
+  }
+
+  private static List<Integer> positions(NoteIterator iterator) {
+    List<Integer> positions = new ArrayList<>();
+    while (iterator.hasNext()) {
+      iterator.next();
+      positions.add(iterator.getCurDelta());
+    }
+    return positions;
+  }
+
+  private static void assertLookupsMatchLinks(NoteList noteList) {
+    NoteIterator iterator = noteList.iterator();
+    int numNotes = 0;
+    while (iterator.hasNext()) {
+      Note note = iterator.next();
+      int position = iterator.getCurDelta();
+      assertSame(note, noteList.getNote(position).getNote(), "Looking up note at " + position);
+      assertEquals(Optional.of(position), noteList.getPositionAtOrAfter(position));
+      assertEquals(numNotes, noteList.getNumNotesBefore(position));
+      if (iterator.hasNext()) {
+        // Next note starts where this one's length ends.
+        assertEquals(
+            Optional.of(position + note.getLength()),
+            noteList.getPositionAtOrAfter(position + 1));
+      }
+      numNotes++;
+    }
+    assertEquals(numNotes, noteList.getSize());
+  }
+}
@@ -0,0 +1,196 @@
+package com.utsusynth.utsu.model.song;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.utsusynth.utsu.common.data.NoteData;
+import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.files.CacheManager;
+import com.utsusynth.utsu.files.PreferencesManager;
+import com.utsusynth.utsu.files.voicebank.VoicebankReader;
+import com.utsusynth.utsu.model.song.pitch.PitchCurve;
+import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
+import com.utsusynth.utsu.model.voicebank.DisjointLyricSet;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
+import com.utsusynth.utsu.model.voicebank.LyricConfigMap;
+import com.utsusynth.utsu.model.voicebank.PitchMap;
+import com.utsusynth.utsu.model.voicebank.Voicebank;
+import com.utsusynth.utsu.model.voicebank.VoicebankContainer;
+import com.utsusynth.utsu.model.voicebank.VoicebankManager;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for {@link Song}. */
+public class SongTest {
+  private static final String[] LYRICS = {"a", "ka", "sa", "a", "n", "ka", "unknown", "sa"};
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void editMatchesRemoveThenAdd() {
+    Song edited = makeSong();
+    Song expected = makeSong();
+    Set<Integer> toRemove = ImmutableSet.of(480, 1440, 2160);
+    List<NoteData> toAdd = ImmutableList.of(
+        new NoteData(600, 240, "D4", "sa"),
+        new NoteData(1500, 480, "C4", "a"),
+        new NoteData(4800, 120, "E4", "ka"));
+
+    edited.edit(edit -> edit.removeNotes(toRemove).addNotes(toAdd));
+    expected.removeNotes(toRemove);
+    expected.addNotes(toAdd);
+    standardizeAll(expected);
+
+    assertEquals(describe(expected), describe(edited));
+  }
+
+  @Test
+  public void shiftNotesInPlaceMatchesRemoveThenAdd() {
+    // Notes stay between the same neighbors, so they're moved in place.
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(960, 1440), 120, 2);
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(960, 1440), -240, -1);
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(0), 240, 0);
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(3120, 3600), 600, 5);
+  }
+
+  @Test
+  public void shiftNotesPastNeighborsMatchesRemoveThenAdd() {
+    // Notes move past their neighbors or aren't next to each other, so they're re-added.
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(960), 720, 0);
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(480, 1440), 120, 1);
+    assertShiftMatchesRemoveThenAdd(ImmutableSet.of(1440, 1920), -1200, -3);
+  }
+
+  private void assertShiftMatchesRemoveThenAdd(
+      Set<Integer> positions, int positionDelta, int noteNumDelta) {
+    Song shifted = makeSong();
+    Song expected = makeSong();
+    List<NoteData> moved = new ArrayList<>();
+    for (NoteData note : expected.getNotes()) {
+      if (positions.contains(note.getPosition())) {
+        String pitch = PitchUtils.noteNumToPitch(
+            PitchUtils.pitchToNoteNum(note.getPitch()) + noteNumDelta);
+        moved.add(new NoteData(
+            note.getPosition() + positionDelta,
+            note.getDuration(),
+            pitch,
+            note.getLyric(),
+            note.getTrueLyric(),
+            note.getEnvelope(),
+            note.getPitchbend(),
+            note.getConfigData()));
+      }
+    }
+
+    shifted.shiftNotes(positions, positionDelta, noteNumDelta);
+    expected.removeNotes(positions);
+    expected.addNotes(moved);
+    standardizeAll(expected);
+
+    assertEquals(
+        describe(expected),
+        describe(shifted),
+        "Shifting " + positions + " by " + positionDelta + " ms, " + noteNumDelta + " notes");
+  }
+
+  private Song makeSong() {
+    File voicebankDir = tempDir.toFile();
+    LyricConfigMap lyricConfigs = new LyricConfigMap();
+    lyricConfigs.addConfig(new LyricConfig(voicebankDir, "a", "a.wav", 10, 60, -300, 40, 20));
+    lyricConfigs.addConfig(new LyricConfig(voicebankDir, "ka", "ka.wav", 20, 120, -400, 90, 30));
+    lyricConfigs.addConfig(new LyricConfig(voicebankDir, "sa", "sa.wav", 5, 150, -350, 200, 10));
+    lyricConfigs.addConfig(new LyricConfig(voicebankDir, "n", "n.wav", 0, 80, -250, 60, 60));
+    Voicebank voicebank = new Voicebank(
+        lyricConfigs, new PitchMap(), new DisjointLyricSet(), new HashSet<>(), null);
+    VoicebankManager voicebankManager = new VoicebankManager();
+    voicebankManager.setVoicebank(voicebankDir, voicebank);
+    CacheManager cacheManager = new CacheManager(tempDir.toFile());
+    PreferencesManager preferencesManager = new PreferencesManager(
+        tempDir.toFile(),
+        DocumentBuilderFactory.newInstance(),
+        TransformerFactory.newInstance(),
+        ImmutableMap.of("voicebank", voicebankDir.getPath()));
+    VoicebankContainer voicebankContainer = new VoicebankContainer(
+        voicebankManager, new VoicebankReader(null, cacheManager, preferencesManager, null));
+    Song song = new Song(
+        voicebankContainer,
+        new NoteStandardizer(),
+        cacheManager,
+        new NoteList(),
+        new PitchCurve(new PortamentoFactory()));
+
+    List<NoteData> notes = new ArrayList<>();
+    int[] positions = {0, 480, 960, 1440, 1920, 2160, 3120, 3600};
+    int[] durations = {480, 480, 480, 360, 240, 720, 480, 480};
+    for (int i = 0; i < positions.length; i++) {
+      String pitch = PitchUtils.noteNumToPitch(60 + (i * 5) % 12);
+      if (i % 3 == 1) {
+        // Some notes get a longer pitchbend and vibrato.
+        PitchbendData pitchbend = new PitchbendData(
+            ImmutableList.of(-60.0, 0.0),
+            ImmutableList.of(50.0, 70.0),
+            ImmutableList.of(-20.0),
+            ImmutableList.of("", "r"),
+            new int[] {60, 180, 40, 20, 30, 0, 10, 0, 20, 0});
+        notes.add(new NoteData(positions[i], durations[i], pitch, LYRICS[i], pitchbend));
+      } else {
+        notes.add(new NoteData(positions[i], durations[i], pitch, LYRICS[i]));
+      }
+    }
+    song.addNotes(notes);
+    standardizeAll(song);
+    return song;
+  }
+
+  private static void standardizeAll(Song song) {
+    int lastPosition = song.getNotes().get(song.getNumNotes() - 1).getPosition();
+    song.standardizeNotes(0, lastPosition);
+  }
+
+  // Everything about each note that rendering reads, followed by the song's pitch string.
+  private static List<String> describe(Song song) {
+    List<String> description = new ArrayList<>();
+    NoteIterator iterator = song.getNoteIterator();
+    int lastPosition = 0;
+    while (iterator.hasNext()) {
+      Note note = iterator.next();
+      lastPosition = iterator.getCurDelta();
+      description.add(String.join(
+          " ",
+          "position=" + lastPosition,
+          "delta=" + note.getDelta(),
+          "duration=" + note.getDuration(),
+          "length=" + note.getLength(),
+          "noteNum=" + note.getNoteNum(),
+          "lyric=" + note.getLyric(),
+          "trueLyric=" + note.getTrueLyric(),
+          "preutter=" + note.getRealPreutter(),
+          "realDuration=" + note.getRealDuration(),
+          "startPoint=" + note.getRealStartPoint(),
+          "fadeIn=" + note.getFadeIn(),
+          "fadeOut=" + note.getFadeOut(),
+          "envelope=" + Arrays.toString(note.getRawFullEnvelope()),
+          "pbs=" + note.getPBS(),
+          "pbw=" + note.getPBW(),
+          "pby=" + note.getPBY(),
+          "pbm=" + note.getPBM(),
+          "vibrato=" + Arrays.toString(note.getPitchbends().getVibrato())));
+    }
+    int lastStep = (lastPosition + 1000) / 5;
+    description.add(song.getPitchString(0, lastStep, 60));
+    return description;
+  }
+}
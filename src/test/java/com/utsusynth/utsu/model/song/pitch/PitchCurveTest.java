@@ -0,0 +1,294 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.model.song.pitch.portamento.Portamento;
+import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link PitchCurve}. */
+public class PitchCurveTest {
+  private static final String[] SHAPES = {"", "s", "r", "j"};
+
+  @Test
+  public void rendersSinglePortamento() {
+    PitchCurve curve = new PitchCurve(new PortamentoFactory());
+    BaselineCurve baseline = new BaselineCurve();
+    PitchbendData data = pitchbend(-40, ImmutableList.of(80.0), ImmutableList.of(), "");
+    curve.addPitchbends(480, 480, data, 60, 62);
+    baseline.addPitchbends(480, 480, data, 60, 62);
+
+    assertEquals(baseline.render(80, 200, 62), curve.renderPitchbends(80, 200, 62));
+    // Steps with no pitchbends before and after the portamento are written as repeats.
+    assertEquals("AA#4#", curve.renderPitchbends(0, 4, 60));
+  }
+
+  @Test
+  public void matchesBaselineEncoder() {
+    Random random = new Random(12345);
+    for (int trial = 0; trial < 50; trial++) {
+      PitchCurve curve = new PitchCurve(new PortamentoFactory());
+      BaselineCurve baseline = new BaselineCurve();
+      List<int[]> notes = new ArrayList<>(); // Position, length, note num.
+      List<PitchbendData> pitchbends = new ArrayList<>();
+      int position = random.nextInt(500);
+      int prevNoteNum = 60;
+      for (int i = 0; i < 12; i++) {
+        int length = 120 + random.nextInt(8) * 60;
+        int noteNum = 48 + random.nextInt(24);
+        PitchbendData data = randomPitchbend(random);
+        curve.addPitchbends(position, length, data, prevNoteNum, noteNum);
+        baseline.addPitchbends(position, length, data, prevNoteNum, noteNum);
+        notes.add(new int[] {position, length, noteNum});
+        pitchbends.add(data);
+        position += length + (random.nextBoolean() ? 0 : random.nextInt(400));
+        prevNoteNum = noteNum;
+      }
+      assertRendersMatch(curve, baseline, notes, "Trial " + trial);
+
+      // Remove some notes' pitchbends, which should clear them from every step they covered.
+      for (int i = notes.size() - 1; i >= 0; i -= 3) {
+        int[] note = notes.get(i);
+        curve.removePitchbends(note[0], note[1], pitchbends.get(i));
+        baseline.removePitchbends(note[0], note[1], pitchbends.get(i));
+      }
+      assertRendersMatch(curve, baseline, notes, "Trial " + trial + " after removal");
+    }
+  }
+
+  @Test
+  public void reusesSnapshotUntilCurveChanges() {
+    PitchCurve curve = new PitchCurve(new PortamentoFactory());
+    PitchbendData data = pitchbend(-40, ImmutableList.of(80.0), ImmutableList.of(), "");
+    curve.addPitchbends(480, 480, data, 60, 62);
+    PitchCurve snapshot = curve.snapshot();
+    assertSame(snapshot, curve.snapshot());
+
+    String rendered = snapshot.renderPitchbends(80, 200, 62);
+    curve.removePitchbends(480, 480, data);
+    // Later changes make a new snapshot, but leave the old one as it was.
+    assertEquals(rendered, snapshot.renderPitchbends(80, 200, 62));
+    assertEquals(
+        curve.renderPitchbends(80, 200, 62), curve.snapshot().renderPitchbends(80, 200, 62));
+  }
+
+  private static void assertRendersMatch(
+      PitchCurve curve, BaselineCurve baseline, List<int[]> notes, String message) {
+    for (int[] note : notes) {
+      // Render a little before and after each note, as the engine does.
+      int firstStep = note[0] / 5 - 20;
+      int lastStep = (note[0] + note[1]) / 5 + 5;
+      assertEquals(
+          baseline.render(firstStep, lastStep, note[2]),
+          curve.renderPitchbends(firstStep, lastStep, note[2]),
+          message + ", note at " + note[0]);
+    }
+    int lastStep = (notes.get(notes.size() - 1)[0] + 1000) / 5;
+    assertEquals(baseline.render(0, lastStep, 60), curve.renderPitchbends(0, lastStep, 60));
+  }
+
+  private static PitchbendData randomPitchbend(Random random) {
+    int numWidths = 1 + random.nextInt(3);
+    ImmutableList.Builder<Double> pbw = ImmutableList.builder();
+    ImmutableList.Builder<Double> pby = ImmutableList.builder();
+    ImmutableList.Builder<String> pbm = ImmutableList.builder();
+    for (int i = 0; i < numWidths; i++) {
+      pbw.add(10 + random.nextInt(120) + random.nextInt(10) / 10.0);
+      pby.add(random.nextInt(100) - 50.0);
+      pbm.add(SHAPES[random.nextInt(SHAPES.length)]);
+    }
+    int[] vibrato = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    if (random.nextBoolean()) {
+      vibrato = new int[] {
+          10 + random.nextInt(80), // Length.
+          100 + random.nextInt(200), // Cycle.
+          random.nextInt(100), // Amplitude.
+          random.nextInt(50), // Phase in.
+          random.nextInt(50), // Phase out.
+          random.nextInt(100), // Phase.
+          random.nextInt(100) - 50, // Pitch change.
+          0,
+          random.nextInt(100) - 50, // Frequency slope.
+          0};
+    }
+    return new PitchbendData(
+        ImmutableList.of(-10.0 - random.nextInt(60), 0.0),
+        pbw.build(),
+        pby.build(),
+        pbm.build(),
+        vibrato);
+  }
+
+  private static PitchbendData pitchbend(
+      double start, ImmutableList<Double> pbw, ImmutableList<Double> pby, String shape) {
+    return new PitchbendData(
+        ImmutableList.of(start, 0.0), pbw, pby, ImmutableList.of(shape));
+  }
+
+  /** The step-by-step pitch curve that PitchCurve replaced, kept to compare output against. */
+  private static class BaselineCurve {
+    private final HashMap<Integer, HashMap<Integer, Portamento>> portamentos = new HashMap<>();
+    private final HashMap<Integer, Vibrato> vibratos = new HashMap<>();
+    private final PortamentoFactory portamentoFactory = new PortamentoFactory();
+
+    void addPitchbends(
+        int noteStartMs, int noteLengthMs, PitchbendData data, int prevNoteNum, int curNoteNum) {
+      double startMs = noteStartMs + data.getPBS().get(0);
+      double pitchStart = prevNoteNum * 10;
+      ImmutableList<Double> pbw = data.getPBW();
+      ImmutableList<Double> pby = data.getPBY();
+      ImmutableList<String> pbm = data.getPBM();
+      for (int i = 0; i < pbw.size(); i++) {
+        double endMs = startMs + pbw.get(i);
+        double pitchEnd = curNoteNum * 10;
+        if (pbw.size() > i + 1 && pby.size() >= i + 1) {
+          pitchEnd += pby.get(i);
+        }
+        String pitchShape = pbm.size() >= i + 1 ? pbm.get(i) : "";
+        Portamento portamento =
+            portamentoFactory.makePortamento(startMs, pitchStart, endMs, pitchEnd, pitchShape);
+        for (int j = nextPitchStep(startMs); j <= prevPitchStep(endMs); j++) {
+          portamentos.computeIfAbsent(j, key -> new HashMap<>())
+              .putIfAbsent(noteStartMs, portamento);
+        }
+        startMs = endMs;
+        pitchStart = pitchEnd;
+      }
+      if (data.getVibrato(0) > 0) {
+        double vibratoLengthMs = noteLengthMs * (data.getVibrato(0) * 1.0 / 100);
+        double vibratoStartMs = noteStartMs + noteLengthMs - vibratoLengthMs;
+        double vibratoEndMs = noteStartMs + noteLengthMs;
+        Vibrato vibrato = new Vibrato(
+            vibratoStartMs,
+            vibratoEndMs,
+            data.getVibrato(1),
+            data.getVibrato(2),
+            data.getVibrato(3),
+            data.getVibrato(4),
+            data.getVibrato(5),
+            data.getVibrato(6),
+            data.getVibrato(8));
+        for (int i = nextPitchStep(vibratoStartMs); i < prevPitchStep(vibratoEndMs); i++) {
+          vibratos.putIfAbsent(i, vibrato);
+        }
+      }
+    }
+
+    void removePitchbends(int noteStartMs, int noteLengthMs, PitchbendData data) {
+      double startMs = noteStartMs + data.getPBS().get(0);
+      double endMs = startMs;
+      for (double width : data.getPBW()) {
+        endMs += width;
+      }
+      for (int i = nextPitchStep(startMs); i <= prevPitchStep(endMs); i++) {
+        if (portamentos.containsKey(i)) {
+          portamentos.get(i).remove(noteStartMs);
+          if (portamentos.get(i).isEmpty()) {
+            portamentos.remove(i);
+          }
+        }
+      }
+      if (data.getVibrato(0) > 0 || data.getVibrato(1) > 0) {
+        double noteEndMs = noteStartMs + noteLengthMs;
+        for (int i = nextPitchStep(noteStartMs); i < prevPitchStep(noteEndMs); i++) {
+          vibratos.remove(i);
+        }
+      }
+    }
+
+    String render(int firstStep, int lastStep, int noteNum) {
+      StringBuilder result = new StringBuilder();
+      double noteNumPitch = noteNum * 10;
+      double defaultPitch = 0;
+      for (int scanStep = firstStep; scanStep <= lastStep; scanStep++) {
+        Optional<Portamento> portamento = getPortamento(scanStep);
+        if (portamento.isPresent()) {
+          defaultPitch = portamento.get().getStartPitch();
+          break;
+        }
+      }
+      for (int step = firstStep; step <= lastStep; step++) {
+        if (hasPitchbend(step)) {
+          int positionMs = step * 5;
+          Optional<Portamento> portamento = getPortamento(step);
+          double portamentoVal = portamento.isPresent() ? portamento.get().apply(positionMs) : 0;
+          double vibratoVal =
+              vibratos.containsKey(step) ? vibratos.get(step).apply(positionMs) : 0;
+          double realPitch = portamentoVal + vibratoVal;
+          if (portamento.isEmpty()) {
+            realPitch += defaultPitch;
+          }
+          result.append(convertTo12Bit((int) ((realPitch - noteNumPitch) * 10)));
+          if (portamento.isPresent()) {
+            defaultPitch = portamento.get().getEndPitch();
+          }
+        } else {
+          int numEmpty = 0;
+          int emptyStep = step;
+          for (; emptyStep <= lastStep && !hasPitchbend(emptyStep); emptyStep++) {
+            numEmpty++;
+          }
+          result.append(convertTo12Bit((int) ((defaultPitch - noteNumPitch) * 10)));
+          if (numEmpty > 1) {
+            result.append(String.format("#%d#", numEmpty - 1));
+          }
+          step = emptyStep - 1;
+        }
+      }
+      return result.toString();
+    }
+
+    private boolean hasPitchbend(int step) {
+      return portamentos.containsKey(step) || vibratos.containsKey(step);
+    }
+
+    // Portamento of the note with the highest delta wins.
+    private Optional<Portamento> getPortamento(int step) {
+      if (!portamentos.containsKey(step)) {
+        return Optional.empty();
+      }
+      int maxKey = -1;
+      for (int key : portamentos.get(step).keySet()) {
+        maxKey = Math.max(maxKey, key);
+      }
+      return Optional.ofNullable(portamentos.get(step).get(maxKey));
+    }
+
+    private static String convertTo12Bit(int convertMe) {
+      if (convertMe < 0) {
+        convertMe += 4096;
+      }
+      convertMe = Math.max(0, Math.min(4095, convertMe));
+      StringBuilder result = new StringBuilder();
+      for (int sixBitNumber : ImmutableList.of(convertMe / 64, convertMe % 64)) {
+        if (sixBitNumber < 26) {
+          result.append((char) (sixBitNumber + 'A'));
+        } else if (sixBitNumber < 52) {
+          result.append((char) (sixBitNumber - 26 + 'a'));
+        } else if (sixBitNumber < 62) {
+          result.append((char) (sixBitNumber - 52 + '0'));
+        } else {
+          result.append(sixBitNumber == 62 ? '+' : '/');
+        }
+      }
+      return result.toString();
+    }
+
+    private static int nextPitchStep(double positionMs) {
+      return (int) Math.ceil(positionMs / 5.0);
+    }
+
+    private static int prevPitchStep(double positionMs) {
+      int prevStep = (int) Math.floor(positionMs / 5.0);
+      return prevStep == nextPitchStep(positionMs) ? prevStep - 1 : prevStep;
+    }
+  }
+}
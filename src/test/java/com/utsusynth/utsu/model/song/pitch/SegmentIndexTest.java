@@ -0,0 +1,99 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.utsusynth.utsu.model.song.pitch.SegmentIndex.Segment;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/** Tests for {@link SegmentIndex}. */
+public class SegmentIndexTest {
+  @Test
+  public void findsOverlappingSegments() {
+    SegmentIndex<String> index = new SegmentIndex<>();
+    index.add(0, 9, "a");
+    index.add(5, 5, "b");
+    index.add(20, 100, "long");
+    index.add(30, 35, "c");
+    index.add(10, 8, "empty"); // Covers no steps, so it's never found.
+
+    assertEquals(Set.of("a"), values(index.getOverlapping(0, 4)));
+    assertEquals(Set.of("a", "b"), values(index.getOverlapping(5, 5)));
+    assertEquals(Set.of(), values(index.getOverlapping(10, 19)));
+    // Found from far after it starts, because the longest segment bounds the search.
+    assertEquals(Set.of("long"), values(index.getOverlapping(100, 200)));
+    assertEquals(Set.of("long", "c"), values(index.getOverlapping(33, 33)));
+    assertEquals(Set.of(), values(index.getOverlapping(9, 0)));
+  }
+
+  @Test
+  public void matchesCheckingEverySegment() {
+    Random random = new Random(42);
+    SegmentIndex<Integer> index = new SegmentIndex<>();
+    List<int[]> added = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      int firstStep = random.nextInt(2000);
+      int lastStep = firstStep + random.nextInt(random.nextInt(10) == 0 ? 400 : 20);
+      index.add(firstStep, lastStep, i);
+      added.add(new int[] {firstStep, lastStep, i});
+    }
+    // Remove every segment with an even value that touches the first half.
+    index.remove(0, 1000, value -> value % 2 == 0);
+    added.removeIf(segment -> segment[2] % 2 == 0 && segment[0] <= 1000);
+
+    for (int trial = 0; trial < 500; trial++) {
+      int firstStep = random.nextInt(2500) - 100;
+      int lastStep = firstStep + random.nextInt(100);
+      Set<Integer> expected = new TreeSet<>();
+      for (int[] segment : added) {
+        if (segment[0] <= lastStep && segment[1] >= firstStep) {
+          expected.add(segment[2]);
+        }
+      }
+      assertEquals(
+          expected,
+          values(index.getOverlapping(firstStep, lastStep)),
+          "Finding segments from " + firstStep + " to " + lastStep);
+    }
+  }
+
+  @Test
+  public void copyIsUnaffectedByLaterChanges() {
+    SegmentIndex<String> index = new SegmentIndex<>();
+    index.add(0, 50, "a");
+    SegmentIndex<String> copy = index.copy();
+    index.remove(0, 50, value -> true);
+    index.add(10, 20, "b");
+
+    assertEquals(Set.of("a"), values(copy.getOverlapping(0, 100)));
+    assertEquals(Set.of("b"), values(index.getOverlapping(0, 100)));
+    // Segments added to the copy come after the ones it started with.
+    copy.add(0, 5, "c");
+    List<Segment<String>> segments = copy.getOverlapping(0, 5);
+    assertEquals(2, segments.size());
+    assertTrue(orderOf(segments, "a") < orderOf(segments, "c"));
+  }
+
+  private static <T> Set<T> values(List<Segment<T>> segments) {
+    Set<T> values = new HashSet<>();
+    for (Segment<T> segment : segments) {
+      values.add(segment.getValue());
+    }
+    return values;
+  }
+
+  private static long orderOf(List<Segment<String>> segments, String value) {
+    for (Segment<String> segment : segments) {
+      if (segment.getValue().equals(value)) {
+        return segment.getOrder();
+      }
+    }
+    return -1;
+  }
+}